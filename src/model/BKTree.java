@@ -0,0 +1,121 @@
+package model;
+
+import java.util.Arrays;
+
+// BK-tree over KeywordDictionary terms under Levenshtein distance, for typo-tolerant
+// search. Every child hangs off its parent at its distance from the parent, so by the
+// triangle inequality a query within k edits of some term only needs to descend into
+// children at distance d-k..d+k of a node d edits away; most terms are never compared.
+// Nodes are kept in parallel int arrays, which also makes copying the tree cheap.
+public class BKTree {
+    private final KeywordDictionary dictionary = KeywordDictionary.getInstance();
+    private final CompressedBitmap terms = new CompressedBitmap();
+    private int[] termIds = new int[16];
+    private int[] parentDistances = new int[16];
+    private int[] firstChildren = new int[16];
+    private int[] nextSiblings = new int[16];
+    private int size;
+
+    // Adds a dictionary term; adding it again has no effect
+    public void add(int termId) {
+        if (terms.contains(termId)) {
+            return;
+        }
+        terms.add(termId);
+        if (size == termIds.length) {
+            int capacity = size * 2;
+            termIds = Arrays.copyOf(termIds, capacity);
+            parentDistances = Arrays.copyOf(parentDistances, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        }
+        int node = size++;
+        termIds[node] = termId;
+        firstChildren[node] = -1;
+        nextSiblings[node] = -1;
+        if (node == 0) {
+            return;
+        }
+
+        String term = dictionary.term(termId);
+        int current = 0;
+        while (true) {
+            int distance = distance(term, dictionary.term(termIds[current]));
+            int child = firstChildren[current];
+            while (child >= 0 && parentDistances[child] != distance) {
+                child = nextSiblings[child];
+            }
+            if (child < 0) {
+                parentDistances[node] = distance;
+                nextSiblings[node] = firstChildren[current];
+                firstChildren[current] = node;
+                return;
+            }
+            current = child;
+        }
+    }
+
+    public void clear() {
+        terms.clear();
+        size = 0;
+    }
+
+    public BKTree copy() {
+        BKTree copy = new BKTree();
+        copy.terms.orInPlace(terms);
+        copy.termIds = termIds.clone();
+        copy.parentDistances = parentDistances.clone();
+        copy.firstChildren = firstChildren.clone();
+        copy.nextSiblings = nextSiblings.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    // Ids of the indexed terms at most maxDistance edits from the case-folded keyword
+    public CompressedBitmap termsWithin(String keyword, int maxDistance) {
+        CompressedBitmap matches = new CompressedBitmap();
+        if (size == 0) {
+            return matches;
+        }
+        int[] pending = new int[16];
+        int pendingCount = 0;
+        pending[pendingCount++] = 0;
+        while (pendingCount > 0) {
+            int node = pending[--pendingCount];
+            int distance = distance(keyword, dictionary.term(termIds[node]));
+            if (distance <= maxDistance) {
+                matches.add(termIds[node]);
+            }
+            for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+                if (Math.abs(parentDistances[child] - distance) <= maxDistance) {
+                    if (pendingCount == pending.length) {
+                        pending = Arrays.copyOf(pending, pendingCount * 2);
+                    }
+                    pending[pendingCount++] = child;
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Levenshtein distance: insertions, deletions and substitutions, one row at a time
+    static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] row = previous;
+            previous = current;
+            current = row;
+        }
+        return previous[b.length()];
+    }
+}
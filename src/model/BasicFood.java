@@ -2,18 +2,25 @@ package model;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 
 public class BasicFood implements Food {
     private String identifier;
     private List<String> keywords;
+    private int[] keywordIds;
     private double caloriesPerServing;
 
     public BasicFood(String identifier, List<String> keywords, double caloriesPerServing) {
         this.identifier = identifier;
-        this.keywords = new ArrayList<>(keywords);
+        this.keywords = Collections.unmodifiableList(new ArrayList<>(keywords));
+        this.keywordIds = KeywordDictionary.getInstance().internAll(this.keywords);
         this.caloriesPerServing = caloriesPerServing;
     }
 
+    // For views over foods held in another representation; they override the getters
+    protected BasicFood() {
+    }
+
     @Override
     public String getIdentifier() {
         return identifier;
@@ -21,7 +28,12 @@ public class BasicFood implements Food {
 
     @Override
     public List<String> getKeywords() {
-        return new ArrayList<>(keywords);
+        return keywords;
+    }
+
+    @Override
+    public int[] getKeywordIds() {
+        return keywordIds;
     }
 
     @Override
@@ -31,11 +43,11 @@ public class BasicFood implements Food {
 
     @Override
     public double calculateTotalCalories(double servings) {
-        return caloriesPerServing * servings;
+        return getCaloriesPerServing() * servings;
     }
 
     @Override
     public String toString() {
-        return identifier + " (" + caloriesPerServing + " cal/serving)";
+        return getIdentifier() + " (" + getCaloriesPerServing() + " cal/serving)";
     }
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package model;
+
+import java.util.List;
+
+// Backing storage for the basic foods of a FoodDatabase, keyed by identifier
+public interface BasicFoodStore {
+    void add(BasicFood food);
+
+    // Overwrites the food with the same identifier
+    void replace(BasicFood food);
+
+    BasicFood get(String identifier);
+
+    boolean contains(String identifier);
+
+    // All foods in insertion order
+    List<BasicFood> getAll();
+
+    int size();
+
+    void clear();
+
+    // Independent store with the same foods, for the next version of a FoodDatabase
+    BasicFoodStore copy();
+}
@@ -0,0 +1,199 @@
+package model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Stores basic foods in parallel primitive columns instead of one object per food:
+// identifiers, calories, and a keyword range per row into one shared int[] of
+// keyword ids. Callers get lightweight BasicFood views over a row on demand.
+public class ColumnarBasicFoodStore implements BasicFoodStore {
+    private String[] identifiers = new String[16];
+    private double[] calories = new double[16];
+    private int[] keywordStart = new int[16];
+    private int[] keywordEnd = new int[16];
+    private int size;
+
+    // Ids of the keywords as entered, rows point into ranges of this array
+    private int[] keywordRefs = new int[64];
+    private int keywordRefCount;
+
+    // Distinct keywords as entered, with their case-folded KeywordDictionary ids
+    private final Map<String, Integer> rawKeywordIds = new HashMap<>();
+    private String[] rawKeywords = new String[64];
+    private int[] foldedKeywordIds = new int[64];
+
+    private IdentifierTable rowsByIdentifier = new IdentifierTable(row -> identifiers[row]);
+
+    @Override
+    public void add(BasicFood food) {
+        if (size == identifiers.length) {
+            int capacity = size * 2;
+            identifiers = Arrays.copyOf(identifiers, capacity);
+            calories = Arrays.copyOf(calories, capacity);
+            keywordStart = Arrays.copyOf(keywordStart, capacity);
+            keywordEnd = Arrays.copyOf(keywordEnd, capacity);
+        }
+        int row = size++;
+        identifiers[row] = food.getIdentifier();
+        writeRow(row, food);
+        rowsByIdentifier.put(food.getIdentifier(), row);
+    }
+
+    @Override
+    public void replace(BasicFood food) {
+        int row = rowsByIdentifier.get(food.getIdentifier());
+        if (row < 0) {
+            add(food);
+        } else {
+            // The old keyword range is left unused rather than compacted
+            writeRow(row, food);
+        }
+    }
+
+    @Override
+    public BasicFood get(String identifier) {
+        int row = rowsByIdentifier.get(identifier);
+        return row < 0 ? null : new Row(row);
+    }
+
+    @Override
+    public boolean contains(String identifier) {
+        return rowsByIdentifier.get(identifier) >= 0;
+    }
+
+    @Override
+    public List<BasicFood> getAll() {
+        List<BasicFood> foods = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            foods.add(new Row(row));
+        }
+        return foods;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(identifiers, 0, size, null);
+        size = 0;
+        keywordRefCount = 0;
+        rowsByIdentifier.clear();
+    }
+
+    // Views handed out by this store keep reading its own columns
+    @Override
+    public ColumnarBasicFoodStore copy() {
+        ColumnarBasicFoodStore copy = new ColumnarBasicFoodStore();
+        copy.identifiers = identifiers.clone();
+        copy.calories = calories.clone();
+        copy.keywordStart = keywordStart.clone();
+        copy.keywordEnd = keywordEnd.clone();
+        copy.size = size;
+        copy.keywordRefs = keywordRefs.clone();
+        copy.keywordRefCount = keywordRefCount;
+        copy.rawKeywordIds.putAll(rawKeywordIds);
+        copy.rawKeywords = rawKeywords.clone();
+        copy.foldedKeywordIds = foldedKeywordIds.clone();
+        copy.rowsByIdentifier = rowsByIdentifier.copy(row -> copy.identifiers[row]);
+        return copy;
+    }
+
+    private void writeRow(int row, BasicFood food) {
+        calories[row] = food.getCaloriesPerServing();
+        List<String> keywords = food.getKeywords();
+        if (keywordRefCount + keywords.size() > keywordRefs.length) {
+            keywordRefs = Arrays.copyOf(keywordRefs, Math.max(keywordRefs.length * 2, keywordRefCount + keywords.size()));
+        }
+        keywordStart[row] = keywordRefCount;
+        for (String keyword : keywords) {
+            keywordRefs[keywordRefCount++] = rawKeywordId(keyword);
+        }
+        keywordEnd[row] = keywordRefCount;
+    }
+
+    private int rawKeywordId(String keyword) {
+        Integer id = rawKeywordIds.get(keyword);
+        if (id == null) {
+            id = rawKeywordIds.size();
+            if (id == rawKeywords.length) {
+                rawKeywords = Arrays.copyOf(rawKeywords, id * 2);
+                foldedKeywordIds = Arrays.copyOf(foldedKeywordIds, id * 2);
+            }
+            rawKeywords[id] = keyword;
+            foldedKeywordIds[id] = KeywordDictionary.getInstance().intern(keyword);
+            rawKeywordIds.put(keyword, id);
+        }
+        return id;
+    }
+
+    // Flyweight view over one row; reads the columns live
+    private class Row extends BasicFood {
+        private final int row;
+        private int[] keywordIds;
+
+        // Created once per view and reads the row's keyword range live
+        private final List<String> keywords = new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return rawKeywords[keywordRefs[keywordStart[row] + index]];
+            }
+
+            @Override
+            public int size() {
+                return keywordEnd[row] - keywordStart[row];
+            }
+        };
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return identifiers[row];
+        }
+
+        @Override
+        public List<String> getKeywords() {
+            return keywords;
+        }
+
+        @Override
+        public int[] getKeywordIds() {
+            if (keywordIds == null) {
+                int start = keywordStart[row];
+                keywordIds = new int[keywordEnd[row] - start];
+                for (int i = 0; i < keywordIds.length; i++) {
+                    keywordIds[i] = foldedKeywordIds[keywordRefs[start + i]];
+                }
+            }
+            return keywordIds;
+        }
+
+        @Override
+        public double getCaloriesPerServing() {
+            return calories[row];
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Row && ((Row) other).row == row && ((Row) other).store() == store();
+        }
+
+        @Override
+        public int hashCode() {
+            return row;
+        }
+
+        private ColumnarBasicFoodStore store() {
+            return ColumnarBasicFoodStore.this;
+        }
+    }
+}
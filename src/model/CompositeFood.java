@@ -1,21 +1,315 @@
 package model;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class CompositeFood implements Food {
+    // Deepest recipe nesting accepted by addComponent and evaluation
+    private static volatile int maxDepth = 10000;
+    // Lazy composites may be shared by database versions read on several threads,
+    // so resolution is serialized (and re-entrant, for cycles through a composite)
+    private static final Object resolveLock = new Object();
+
     private String identifier;
     private List<String> keywords;
+    private int[] keywordIds;
     private List<FoodServing> components;
+    // Memoized calories per serving; NaN until computed or after invalidation
+    private volatile double cachedCaloriesPerServing = Double.NaN;
+    // Levels of composites below this one (0 when all components are basic). Edits
+    // below a composite already used elsewhere can leave its users' values stale,
+    // so evaluation enforces the depth limit again.
+    private int depth;
+    // Number of component servings that refer to this food or to another version of
+    // it, in composites of the current database versions or not added to one yet.
+    // Copies and replacements share the count, since a recipe containing one version
+    // contains the food as far as cycles go.
+    private AtomicInteger referenceCount = new AtomicInteger();
+    // The load a lazily loaded composite (or the composite this is a version of) came from
+    private LazyLoad lazyLoad;
+    // Set while a lazily loaded composite still holds its components as identifiers
+    private Function<String, Food> resolver;
+    private List<String> unresolvedIds;
+    private double[] unresolvedServings;
+    private volatile boolean resolved = true;
 
     public CompositeFood(String identifier, List<String> keywords) {
         this.identifier = identifier;
-        this.keywords = new ArrayList<>(keywords);
+        this.keywords = Collections.unmodifiableList(new ArrayList<>(keywords));
+        this.keywordIds = KeywordDictionary.getInstance().internAll(this.keywords);
         this.components = new ArrayList<>();
     }
 
+    // Lazily loaded composite: reports the stored calories (NaN if they must be
+    // recomputed) and looks its components up with the load's resolver only when
+    // they are first needed
+    public CompositeFood(String identifier, List<String> keywords, double storedCaloriesPerServing,
+            List<String> componentIds, double[] servings, LazyLoad load) {
+        this(identifier, keywords);
+        this.cachedCaloriesPerServing = storedCaloriesPerServing;
+        this.unresolvedIds = componentIds;
+        this.unresolvedServings = servings;
+        this.lazyLoad = load;
+        this.resolver = load.resolver;
+        this.resolved = false;
+        load.unresolved.incrementAndGet();
+    }
+
+    public static int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public static void setMaxDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Maximum recipe depth must be at least 1.");
+        }
+        maxDepth = depth;
+    }
+
+    // Once this food is in a FoodDatabase, use FoodDatabase.addComponent so that
+    // composites containing this one are invalidated as well
     public void addComponent(Food food, double servings) {
+        components();
+        checkComponent(food);
         components.add(new FoodServing(food, servings));
+        if (food instanceof CompositeFood) {
+            CompositeFood child = (CompositeFood) food;
+            child.addReferences(1);
+            depth = Math.max(depth, child.depth + 1);
+        }
+        invalidateCalories();
+    }
+
+    // Atomic so that composites sharing a child can be linked in parallel
+    private void addReferences(int delta) {
+        referenceCount.addAndGet(delta);
+    }
+
+    private boolean isReferenced() {
+        return referenceCount.get() > 0;
+    }
+
+    // Called when this composite replaces the previous version in a database
+    void shareReferences(CompositeFood previous) {
+        if (previous.referenceCount != referenceCount) {
+            previous.referenceCount.addAndGet(referenceCount.get());
+            referenceCount = previous.referenceCount;
+        }
+    }
+
+    // A composite of a lazy load may be used by composites of the same load that
+    // have not resolved their components yet, which no reference count records
+    private boolean mayBeReferencedLazily() {
+        return lazyLoad != null && lazyLoad.unresolved.get() > 0;
+    }
+
+    // Once this version has left the database, it no longer counts as a user of its
+    // components; a composite that never resolved its components never counted
+    void releaseReferences() {
+        if (!isResolved()) {
+            return;
+        }
+        for (FoodServing comp : components) {
+            if (comp.food instanceof CompositeFood) {
+                ((CompositeFood) comp.food).addReferences(-1);
+            }
+        }
+    }
+
+    // Points every component serving of oldFood (matched by identifier and type,
+    // since basic foods may be handed out as views) at newFood instead
+    void replaceComponent(Food oldFood, Food newFood) {
+        if (!isResolved()) {
+            // Resolves to the new food by identifier once it is needed
+            invalidateCalories();
+            return;
+        }
+        checkComponent(newFood);
+        for (int i = 0; i < components.size(); i++) {
+            FoodServing comp = components.get(i);
+            if (comp.food.getIdentifier().equals(oldFood.getIdentifier())
+                    && (comp.food instanceof CompositeFood) == (oldFood instanceof CompositeFood)) {
+                components.set(i, new FoodServing(newFood, comp.servings));
+                if (comp.food instanceof CompositeFood) {
+                    ((CompositeFood) comp.food).addReferences(-1);
+                }
+                if (newFood instanceof CompositeFood) {
+                    CompositeFood child = (CompositeFood) newFood;
+                    child.addReferences(1);
+                    depth = Math.max(depth, child.depth + 1);
+                }
+            }
+        }
+        invalidateCalories();
+    }
+
+    // Rejects components that would make this recipe contain itself or nest too deeply
+    private void checkComponent(Food food) {
+        if (!(food instanceof CompositeFood)) {
+            return;
+        }
+        CompositeFood child = (CompositeFood) food;
+        if (child == this || ((isReferenced() || mayBeReferencedLazily()) && child.contains(this))) {
+            // A composite nothing refers to yet cannot be inside the child, so the
+            // walk is only needed when editing a recipe that is already in use (or
+            // possibly in use by a lazy composite that has not been resolved)
+            throw new IllegalArgumentException(
+                    "Adding " + child.getIdentifier() + " to " + identifier + " would create a cycle.");
+        }
+        if (child.depth + 1 > maxDepth) {
+            throw new IllegalArgumentException(
+                    "Recipe for " + identifier + " would be nested deeper than " + maxDepth + " levels.");
+        }
+    }
+
+    // Resolved copy with the same components, for the next version of a database;
+    // the components themselves are shared
+    CompositeFood copy() {
+        CompositeFood copy = new CompositeFood(identifier, keywords);
+        for (FoodServing comp : components()) {
+            copy.components.add(comp);
+            if (comp.food instanceof CompositeFood) {
+                ((CompositeFood) comp.food).addReferences(1);
+            }
+        }
+        copy.depth = depth;
+        copy.cachedCaloriesPerServing = cachedCaloriesPerServing;
+        copy.lazyLoad = lazyLoad;
+        copy.referenceCount = referenceCount;
+        return copy;
+    }
+
+    // Points components at the versions they map to, without the cycle checks of
+    // replaceComponent: each version has the same recipe as the food it replaces
+    void swapComponents(Map<CompositeFood, CompositeFood> versions) {
+        if (!isResolved()) {
+            return; // Resolves to the current versions by identifier
+        }
+        for (int i = 0; i < components.size(); i++) {
+            FoodServing comp = components.get(i);
+            CompositeFood version = comp.food instanceof CompositeFood ? versions.get(comp.food) : null;
+            if (version != null && version != comp.food) {
+                components.set(i, new FoodServing(version, comp.servings));
+                version.addReferences(1);
+                ((CompositeFood) comp.food).addReferences(-1);
+            }
+        }
+    }
+
+    // Whether the target (or another version of it) appears anywhere in this recipe;
+    // linear in the recipe size
+    private boolean contains(CompositeFood target) {
+        Set<CompositeFood> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<CompositeFood> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CompositeFood current = pending.pop();
+            if (current.identifier.equals(target.identifier)) {
+                return true;
+            }
+            if (visited.add(current)) {
+                for (FoodServing comp : current.components()) {
+                    if (comp.food instanceof CompositeFood) {
+                        pending.push((CompositeFood) comp.food);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Components of the recipe, resolving a lazy composite on first use
+    private List<FoodServing> components() {
+        if (!resolved) {
+            synchronized (resolveLock) {
+                if (resolver != null) {
+                    resolve();
+                    resolved = true;
+                }
+            }
+        }
+        return components;
+    }
+
+    // Turns the component identifiers of a lazy composite into FoodServings, with
+    // resolveLock held. Marked resolved first, so a cycle through this composite
+    // sees the components added so far.
+    private void resolve() {
+        Function<String, Food> lookup = resolver;
+        List<String> ids = unresolvedIds;
+        double[] servings = unresolvedServings;
+        resolver = null;
+        unresolvedIds = null;
+        unresolvedServings = null;
+        lazyLoad.unresolved.decrementAndGet();
+        for (int i = 0; i < ids.size(); i++) {
+            Food food = lookup.apply(ids.get(i));
+            if (food == null) {
+                continue; // Unknown food, skipped as in an eager load
+            }
+            try {
+                checkComponent(food);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping component " + ids.get(i) + " of " + identifier + ": " + e.getMessage());
+                continue;
+            }
+            components.add(new FoodServing(food, servings[i]));
+            if (food instanceof CompositeFood) {
+                CompositeFood child = (CompositeFood) food;
+                child.addReferences(1);
+                depth = Math.max(depth, child.depth + 1);
+            }
+        }
+    }
+
+    // Whether the components are still held as identifiers
+    public boolean isResolved() {
+        return resolved;
+    }
+
+    // Identifiers of the components, without resolving a lazy composite
+    public List<String> getComponentIdentifiers() {
+        if (!resolved) {
+            synchronized (resolveLock) {
+                if (resolver != null) {
+                    return Collections.unmodifiableList(unresolvedIds);
+                }
+            }
+        }
+        List<String> ids = new ArrayList<>(components.size());
+        for (FoodServing comp : components) {
+            ids.add(comp.food.getIdentifier());
+        }
+        return ids;
+    }
+
+    // Servings of the components, in the order of getComponentIdentifiers()
+    public double[] getComponentServings() {
+        if (!resolved) {
+            synchronized (resolveLock) {
+                if (resolver != null) {
+                    return unresolvedServings.clone();
+                }
+            }
+        }
+        double[] servings = new double[components.size()];
+        for (int i = 0; i < servings.length; i++) {
+            servings[i] = components.get(i).servings;
+        }
+        return servings;
+    }
+
+    void invalidateCalories() {
+        cachedCaloriesPerServing = Double.NaN;
     }
 
     @Override
@@ -25,23 +319,70 @@ public class CompositeFood implements Food {
 
     @Override
     public List<String> getKeywords() {
-        return new ArrayList<>(keywords);
+        return keywords;
+    }
+
+    @Override
+    public int[] getKeywordIds() {
+        return keywordIds;
     }
 
     @Override
     public double getCaloriesPerServing() {
-        return calculateTotalCalories(1);
+        if (Double.isNaN(cachedCaloriesPerServing)) {
+            evaluate();
+        }
+        return cachedCaloriesPerServing;
+    }
+
+    // Fills in the memoized calories of this composite and every uncached composite
+    // below it using an explicit stack, so very deep recipes cannot overflow the
+    // call stack. Each composite is evaluated once, making the cost linear in the
+    // size of the recipe graph.
+    private void evaluate() {
+        Deque<CompositeFood> path = new ArrayDeque<>();
+        Deque<Iterator<FoodServing>> pending = new ArrayDeque<>();
+        Set<CompositeFood> onPath = Collections.newSetFromMap(new IdentityHashMap<>());
+        path.push(this);
+        pending.push(components().iterator());
+        onPath.add(this);
+        while (!path.isEmpty()) {
+            Iterator<FoodServing> remaining = pending.peek();
+            if (remaining.hasNext()) {
+                Food food = remaining.next().food;
+                if (food instanceof CompositeFood && Double.isNaN(((CompositeFood) food).cachedCaloriesPerServing)) {
+                    CompositeFood child = (CompositeFood) food;
+                    if (!onPath.add(child)) {
+                        throw new IllegalStateException("Composite food contains itself: " + child.getIdentifier());
+                    }
+                    if (path.size() >= maxDepth) {
+                        throw new IllegalStateException(
+                                "Recipe for " + identifier + " is nested deeper than " + maxDepth + " levels.");
+                    }
+                    path.push(child);
+                    pending.push(child.components().iterator());
+                }
+                continue;
+            }
+
+            CompositeFood current = path.pop();
+            pending.pop();
+            onPath.remove(current);
+            double calories = 0;
+            for (FoodServing comp : current.components) {
+                calories += comp.food.getCaloriesPerServing() * comp.servings;
+            }
+            current.cachedCaloriesPerServing = calories;
+        }
     }
 
     @Override
     public double calculateTotalCalories(double servings) {
-        return components.stream()
-                .mapToDouble(comp -> comp.food.calculateTotalCalories(comp.servings * servings))
-                .sum();
+        return getCaloriesPerServing() * servings;
     }
 
     public List<FoodServing> getComponents() {
-        return new ArrayList<>(components);
+        return new ArrayList<>(components());
     }
 
     @Override
@@ -49,6 +390,18 @@ public class CompositeFood implements Food {
         return identifier + " (" + getCaloriesPerServing() + " cal/serving)";
     }
 
+    // Composites loaded lazily together: they resolve their components with one
+    // resolver, against one database version, and may only use each other and the
+    // foods of that version
+    public static class LazyLoad {
+        private final Function<String, Food> resolver;
+        private final AtomicInteger unresolved = new AtomicInteger();
+
+        public LazyLoad(Function<String, Food> resolver) {
+            this.resolver = resolver;
+        }
+    }
+
     // Inner class to track food components and their servings
     public static class FoodServing {
         public final Food food;
@@ -21,12 +21,17 @@ public interface DailyLog {
     class FoodEntry {
         private Food food;
         private double servings;
-        protected long timestamp; // Changed to protected for reflection access
+        private final long timestamp;
 
         public FoodEntry(Food food, double servings) {
+            this(food, servings, System.currentTimeMillis());
+        }
+
+        // E.g. for an entry read back from a log file
+        public FoodEntry(Food food, double servings, long timestamp) {
             this.food = food;
             this.servings = servings;
-            this.timestamp = System.currentTimeMillis(); 
+            this.timestamp = timestamp;
         }
 
         public Food getFood() {
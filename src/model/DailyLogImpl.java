@@ -1,17 +1,45 @@
 package model;
 
 import java.time.LocalDate;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import model.DailyLog.FoodEntry;
 
+// Entries are stored as parallel primitive columns (food, servings, timestamp), so a
+// day costs a few bytes per entry instead of an object each; FoodEntry objects are
+// only created as views when an entry is read.
 public class DailyLogImpl implements DailyLog {
     private LocalDate date;
-    private List<FoodEntry> foodEntries = new ArrayList<>();
+
+    // Distinct foods of this log, one per identifier and type (stores may hand out a
+    // new view object on every lookup); entries refer to them by position in this table
+    private final List<Food> foods = new ArrayList<>();
+    private final Map<String, Integer> basicFoodIds = new HashMap<>();
+    private final Map<String, Integer> compositeFoodIds = new HashMap<>();
+
+    // Entry i is foods[entryFoods[i]], servings[i], timestamps[i]
+    private int[] entryFoods = new int[8];
+    private double[] servings = new double[8];
+    private long[] timestamps = new long[8];
+    private int size;
+
+    // Position of the first entry for each food identifier and each timestamp, and the
+    // calorie total, kept up to date as entries change, so merging, lookups and totals
+    // cost O(1) and loading a day is linear. Removing an entry or inserting one anywhere
+    // but at the end shifts positions; the indexes (and total) are then rebuilt once,
+    // on next use.
+    private final Map<String, Integer> positionsByIdentifier = new HashMap<>();
+    private final TimestampTable positionsByTimestamp = new TimestampTable();
+    private boolean indexesStale;
+    private double totalCalories;
+
     public DailyLogImpl(LocalDate date) {
         this.date = date;
-        this.foodEntries = new ArrayList<>();
     }
 
     @Override
@@ -19,108 +47,257 @@ public class DailyLogImpl implements DailyLog {
         return date;
     }
 
-    
+
     @Override
     public boolean addFoodEntry(Food food, double servings) {
-        for (int i = 0; i < foodEntries.size(); i++) {
-            FoodEntry entry = foodEntries.get(i);
-            if (entry.getFood().getIdentifier().equals(food.getIdentifier())) {
-                // Preserve original timestamp when merging
-                FoodEntry updatedEntry = new FoodEntryWithTimestamp(
-                    food,
-                    entry.getServings() + servings,
-                    entry.getTimestamp()  // Use original timestamp
-                );
-                foodEntries.set(i, updatedEntry);
-                return true; // Indicates an update
-            }
+        int i = positionOf(food.getIdentifier());
+        if (i >= 0) {
+            // Preserve original timestamp when merging
+            set(i, food, this.servings[i] + servings, timestamps[i]);
+            return true; // Indicates an update
         }
         // Add new entry with current timestamp
-        foodEntries.add(new FoodEntry(food, servings));
+        append(food, servings, System.currentTimeMillis());
         return false; // Indicates a new entry
     }
 
     @Override
     public void updateFoodEntry(int index, FoodEntry entry) {
-        if (index >= 0 && index < foodEntries.size()) {
-            foodEntries.set(index, entry);
+        if (index >= 0 && index < size) {
+            set(index, entry.getFood(), entry.getServings(), entry.getTimestamp());
         }
     }
 
     // New method to add food entry with a specific timestamp
     public void addFoodEntryWithTimestamp(Food food, double servings, long timestamp) {
         // Check for existing entry by timestamp
-        for (int i = 0; i < foodEntries.size(); i++) {
-            FoodEntry entry = foodEntries.get(i);
-            if (entry.getTimestamp() == timestamp) {
-                // Update existing entry
-                foodEntries.set(i, new FoodEntryWithTimestamp(food, servings, timestamp));
-                return;
-            }
+        int i = findEntryIndexByTimestamp(timestamp);
+        if (i >= 0) {
+            // Update existing entry
+            set(i, food, servings, timestamp);
+            return;
         }
         // Add new entry
-        foodEntries.add(new FoodEntryWithTimestamp(food, servings, timestamp));
+        append(food, servings, timestamp);
     }
 
 
     public int findEntryIndexByTimestamp(long timestamp) {
-        for (int i = 0; i < foodEntries.size(); i++) {
-            if (foodEntries.get(i).getTimestamp() == timestamp) {
-                return i;
-            }
-        }
-        return -1;
+        ensureIndexes();
+        return positionsByTimestamp.get(timestamp);
     }
 
     public void addFoodEntryAtIndex(FoodEntry entry, int index) {
-        foodEntries.add(index, entry);
+        if (index == size) {
+            append(entry.getFood(), entry.getServings(), entry.getTimestamp());
+            return;
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(entryFoods, index, entryFoods, index + 1, size - index);
+        System.arraycopy(servings, index, servings, index + 1, size - index);
+        System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+        entryFoods[index] = foodId(entry.getFood());
+        servings[index] = entry.getServings();
+        timestamps[index] = entry.getTimestamp();
+        size++;
+        totalCalories += caloriesAt(index);
+        indexesStale = true;
     }
 
     @Override
     public void removeFoodEntry(int entryIndex) {
-        if (entryIndex >= 0 && entryIndex < foodEntries.size()) {
-            foodEntries.remove(entryIndex);
+        if (entryIndex >= 0 && entryIndex < size) {
+            remove(entryIndex);
         }
     }
 
+    // Read-only view of the entries; each FoodEntry is created when it is read and is
+    // a copy, so changing it does not change the log
     @Override
     public List<FoodEntry> getFoodEntries() {
-        return new ArrayList<>(foodEntries);
+        return new AbstractList<FoodEntry>() {
+            @Override
+            public FoodEntry get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                }
+                return new FoodEntry(foods.get(entryFoods[index]), servings[index], timestamps[index]);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
     public void updateFoodEntryServings(Food food, double servingsChange) {
-        for (FoodEntry entry : foodEntries) {
-            if (entry.getFood().getIdentifier().equals(food.getIdentifier())) {
-                entry.setServings(entry.getServings() + servingsChange);
+        int i = positionOf(food.getIdentifier());
+        if (i < 0) {
+            return;
+        }
+        double calories = caloriesAt(i);
+        servings[i] += servingsChange;
+        totalCalories += caloriesAt(i) - calories;
 
-                // If servings become zero or less, remove the entry
-                if (entry.getServings() <= 0) {
-                    foodEntries.remove(entry);
-                }
-                return;
-            }
+        // If servings become zero or less, remove the entry
+        if (servings[i] <= 0) {
+            remove(i);
         }
     }
 
     @Override
     public double getTotalCalories() {
-        return foodEntries.stream()
-                .mapToDouble(FoodEntry::getTotalCalories)
-                .sum();
-    }
-
-    // Custom FoodEntry subclass to allow setting custom timestamp
-    private static class FoodEntryWithTimestamp extends FoodEntry {
-        public FoodEntryWithTimestamp(Food food, double servings, long timestamp) {
-            super(food, servings);
-            // Use reflection to set the timestamp
-            try {
-                java.lang.reflect.Field timestampField = FoodEntry.class.getDeclaredField("timestamp");
-                timestampField.setAccessible(true);
-                timestampField.set(this, timestamp);
-            } catch (Exception e) {
-                e.printStackTrace();
+        ensureIndexes();
+        return totalCalories;
+    }
+
+    private int positionOf(String identifier) {
+        ensureIndexes();
+        Integer position = positionsByIdentifier.get(identifier);
+        return position == null ? -1 : position;
+    }
+
+    private double caloriesAt(int position) {
+        return foods.get(entryFoods[position]).calculateTotalCalories(servings[position]);
+    }
+
+    private int foodId(Food food) {
+        Map<String, Integer> foodIds = food instanceof CompositeFood ? compositeFoodIds : basicFoodIds;
+        Integer id = foodIds.get(food.getIdentifier());
+        if (id == null) {
+            id = foods.size();
+            foods.add(food);
+            foodIds.put(food.getIdentifier(), id);
+        } else if (foods.get(id) != food) {
+            // Every entry of the food now reads the version given last, as when merging;
+            // the total is rebuilt if that changes their calories
+            if (foods.get(id).getCaloriesPerServing() != food.getCaloriesPerServing()) {
+                indexesStale = true;
             }
+            foods.set(id, food);
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > entryFoods.length) {
+            int length = Math.max(capacity, entryFoods.length * 2);
+            entryFoods = Arrays.copyOf(entryFoods, length);
+            servings = Arrays.copyOf(servings, length);
+            timestamps = Arrays.copyOf(timestamps, length);
+        }
+    }
+
+    private void append(Food food, double servings, long timestamp) {
+        ensureCapacity(size + 1);
+        int position = size++;
+        entryFoods[position] = foodId(food);
+        this.servings[position] = servings;
+        timestamps[position] = timestamp;
+        totalCalories += caloriesAt(position);
+        if (!indexesStale) {
+            positionsByIdentifier.putIfAbsent(food.getIdentifier(), position);
+            positionsByTimestamp.putIfAbsent(timestamp, position);
+        }
+    }
+
+    private void set(int position, Food food, double servings, long timestamp) {
+        Food old = foods.get(entryFoods[position]);
+        double calories = caloriesAt(position);
+        if (!old.getIdentifier().equals(food.getIdentifier()) || timestamps[position] != timestamp) {
+            indexesStale = true;
+        }
+        entryFoods[position] = foodId(food);
+        this.servings[position] = servings;
+        timestamps[position] = timestamp;
+        totalCalories += caloriesAt(position) - calories;
+    }
+
+    private void remove(int position) {
+        totalCalories -= caloriesAt(position);
+        int moved = size - position - 1;
+        System.arraycopy(entryFoods, position + 1, entryFoods, position, moved);
+        System.arraycopy(servings, position + 1, servings, position, moved);
+        System.arraycopy(timestamps, position + 1, timestamps, position, moved);
+        size--;
+        // Positions after it shift, and the timestamp table cannot drop single keys
+        indexesStale = true;
+    }
+
+    // Also recomputes the total, so rounding errors of the running sum do not build up
+    private void ensureIndexes() {
+        if (!indexesStale) {
+            return;
+        }
+        positionsByIdentifier.clear();
+        positionsByTimestamp.clear();
+        totalCalories = 0;
+        for (int i = 0; i < size; i++) {
+            positionsByIdentifier.putIfAbsent(foods.get(entryFoods[i]).getIdentifier(), i);
+            positionsByTimestamp.putIfAbsent(timestamps[i], i);
+            totalCalories += caloriesAt(i);
+        }
+        indexesStale = false;
+    }
+
+    // Open-addressing hash table from timestamps to entry positions. Like
+    // IdentifierTable, slots hold only the position; the key is read back from the
+    // timestamps column, so the index costs a few bytes per entry and no boxing.
+    private class TimestampTable {
+        private int[] slots = new int[16]; // position + 1, or 0 for an empty slot
+        private int count;
+
+        int get(long timestamp) {
+            int mask = slots.length - 1;
+            for (int i = hash(timestamp) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (timestamps[slots[i] - 1] == timestamp) {
+                    return slots[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        // Keeps the existing position if the timestamp is already present
+        void putIfAbsent(long timestamp, int position) {
+            if ((count + 1) * 2 > slots.length) {
+                resize();
+            }
+            int mask = slots.length - 1;
+            int i = hash(timestamp) & mask;
+            while (slots[i] != 0) {
+                if (timestamps[slots[i] - 1] == timestamp) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = position + 1;
+            count++;
+        }
+
+        void clear() {
+            Arrays.fill(slots, 0);
+            count = 0;
+        }
+
+        private void resize() {
+            int[] old = slots;
+            slots = new int[old.length * 2];
+            int mask = slots.length - 1;
+            for (int slot : old) {
+                if (slot != 0) {
+                    int i = hash(timestamps[slot - 1]) & mask;
+                    while (slots[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    slots[i] = slot;
+                }
+            }
+        }
+
+        private int hash(long timestamp) {
+            long h = timestamp * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
         }
     }
-}
\ No newline at end of file
+}
@@ -1,122 +1,327 @@
 package model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import javax.swing.JOptionPane;
 
+import util.ChunkedTextParser;
+import util.DailyLogMigration;
+import util.GroupCommitWriter;
+import util.SegmentedLogStore;
+
+// Day logs and day profiles are records of a SegmentedLogStore in data/daily_store;
+// the old one-file-per-day directories are imported into it on startup until an import
+// has completed.
+// Saves are queued to a GroupCommitWriter and written in the background; reads see
+// queued versions first.
 public class DailyLogManager {
-    private static final String LOGS_DIRECTORY = "data/daily_logs/";
-    private Map<LocalDate, DailyLog> logs;
+    private static final String STORE_DIRECTORY = "data/daily_store";
+    private final SegmentedLogStore store;
+    private final GroupCommitWriter writer;
     private Stack<Command> undoStack;
     private Stack<Command> redoStack;
-    
+
+    // Dates with a log in the store (or a log created since), known from the store's
+    // index alone; a day's log is only read on first access
+    private final NavigableSet<LocalDate> availableDates = new TreeSet<>();
+
+    // Logs read or created so far, least recently used first. Bounded by
+    // -Dyada.logCacheDays (default 64); logs with changes not yet written are pinned.
+    private final int cacheCapacity = Integer.getInteger("yada.logCacheDays", 64);
+    private final LinkedHashMap<LocalDate, DailyLog> logs = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Reverse index: food identifier -> dates whose log has an entry for it, and the
+    // identifiers indexed for each date, so a changed log is reindexed on its own.
+    // Built from the stored logs by a background thread; guarded by its own monitor.
+    private final Map<String, NavigableSet<LocalDate>> datesByFood = new HashMap<>();
+    private final Map<LocalDate, Set<String>> foodsByDate = new HashMap<>();
+    private final Thread indexer;
 
     public DailyLogManager() {
-        logs = new HashMap<>();
         undoStack = new Stack<>();
         redoStack = new Stack<>();
-        loadExistingLogs();
+        try {
+            store = SegmentedLogStore.open(new File(STORE_DIRECTORY));
+            // Repeated until an import completes; days already in the store are skipped
+            if (!DailyLogMigration.isComplete(store)) {
+                DailyLogMigration.migrate(new File(DailyLogMigration.LOGS_DIRECTORY),
+                        new File(DailyLogMigration.PROFILES_DIRECTORY), store);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open daily log store", e);
+        }
+        writer = new GroupCommitWriter(store);
+        availableDates.addAll(store.dates(SegmentedLogStore.LOG));
+        indexer = new Thread(this::indexExistingLogs, "daily-log-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
     }
 
-    private void loadExistingLogs() {
-        File logsDir = new File(LOGS_DIRECTORY);
-        if (!logsDir.exists()) {
-            logsDir.mkdirs();
+    // Reads the food identifiers of every stored log into the reverse index, a month
+    // at a time. A date already indexed from its in-memory log (changed in the
+    // meantime) is left alone.
+    private void indexExistingLogs() {
+        LocalDate first;
+        LocalDate last;
+        synchronized (this) {
+            if (availableDates.isEmpty()) {
+                return;
+            }
+            first = availableDates.first();
+            last = availableDates.last();
         }
-
-        File[] logFiles = logsDir.listFiles((dir, name) -> name.endsWith(".log"));
-        if (logFiles != null) {
-            for (File logFile : logFiles) {
-                try {
-                    LocalDate date = parseFilenameToDate(logFile.getName());
-                    DailyLog log = loadLogFromFile(logFile);
-                    logs.put(date, log);
-                } catch (Exception e) {
-                    System.err.println("Error loading log file: " + logFile.getName());
-                    e.printStackTrace();
+        for (LocalDate from = first.withDayOfMonth(1); !from.isAfter(last); from = from.plusMonths(1)) {
+            NavigableMap<LocalDate, ByteBuffer> month;
+            try {
+                month = store.readRange(SegmentedLogStore.LOG, from, from.plusMonths(1).minusDays(1));
+            } catch (IOException e) {
+                System.err.println("Error indexing logs of " + from.getMonth() + " " + from.getYear());
+                continue;
+            }
+            for (Map.Entry<LocalDate, ByteBuffer> entry : month.entrySet()) {
+                Set<String> foodIds = new HashSet<>();
+                for (LogRecord record : parseLog(entry.getValue())) {
+                    foodIds.add(record.foodId);
+                }
+                synchronized (datesByFood) {
+                    if (!foodsByDate.containsKey(entry.getKey())) {
+                        index(entry.getKey(), foodIds);
+                    }
                 }
             }
         }
     }
 
-    private LocalDate parseFilenameToDate(String filename) {
-        String dateStr = filename.replace(".log", "");
-        return LocalDate.parse(dateStr);
+    // Format: foodIdentifier;servings;timestamp per line
+    private static List<LogRecord> parseLog(ByteBuffer text) {
+        return ChunkedTextParser.parse(text, ';', line -> line.fieldCount() >= 3
+                ? new LogRecord(line.getString(0), line.getDouble(1), line.getLong(2))
+                : null);
     }
 
-    private DailyLog loadLogFromFile(File file) throws IOException {
-        DailyLogImpl log = new DailyLogImpl(parseFilenameToDate(file.getName()));
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(";");
-                if (parts.length >= 3) {
-                    String foodId = parts[0];
-                    double servings = Double.parseDouble(parts[1]);
-                    long timestamp = Long.parseLong(parts[2]);
-                    Food food = FoodDatabase.getInstance().findFoodByIdentifier(foodId);
-                    if (food != null) {
-                        log.addFoodEntryWithTimestamp(food, servings, timestamp);
-                    }
-                }
+    private DailyLog buildLog(LocalDate date, List<LogRecord> records) {
+        DailyLogImpl log = new DailyLogImpl(date);
+        for (LogRecord record : records) {
+            Food food = FoodDatabase.getInstance().findFoodByIdentifier(record.foodId);
+            if (food != null) {
+                log.addFoodEntryWithTimestamp(food, record.servings, record.timestamp);
             }
         }
         return log;
     }
 
+    // Loads the profile stored for the date, or returns null if it is missing or invalid
+    public UserProfile loadDailyProfile(LocalDate date) {
+        try {
+            ByteBuffer text = read(SegmentedLogStore.PROFILE, date);
+            if (text == null) {
+                return null;
+            }
+            // Format: one Key:value per line, ending with ---
+            Map<String, String> fields = new HashMap<>();
+            for (String[] field : ChunkedTextParser.parse(text, ':', line -> line.fieldCount() >= 2
+                    ? new String[] { line.getString(0), line.getString(1).trim() }
+                    : null)) {
+                fields.put(field[0], field[1]);
+            }
+            if (fields.get("Gender") == null || fields.get("ActivityLevel") == null) {
+                throw new IOException("Invalid profile format for: " + date);
+            }
+            String effectiveDate = fields.get("EffectiveDate");
+            return new UserProfile(
+                    effectiveDate != null ? LocalDate.parse(effectiveDate) : date,
+                    fields.get("Gender"),
+                    Integer.parseInt(fields.getOrDefault("Age", "0")),
+                    Double.parseDouble(fields.getOrDefault("Weight", "0.0")),
+                    Double.parseDouble(fields.getOrDefault("Height", "0.0")),
+                    fields.get("ActivityLevel"));
+        } catch (Exception ex) {
+            System.err.println("Failed to load profile for: " + date);
+            return null;
+        }
+    }
+
+    public boolean hasDailyProfile(LocalDate date) {
+        return writer.isPending(SegmentedLogStore.PROFILE, date) || store.contains(SegmentedLogStore.PROFILE, date);
+    }
+
+    // Dates with a stored profile, oldest first
+    public List<LocalDate> getProfileDates() {
+        NavigableSet<LocalDate> dates = store.dates(SegmentedLogStore.PROFILE);
+        for (LocalDate date : writer.pendingDates(SegmentedLogStore.PROFILE)) {
+            dates.add(date);
+        }
+        return new ArrayList<>(dates);
+    }
+
+    // Stores the profile as the one for its effective date
+    public void saveDailyProfile(UserProfile profile) {
+        String text = "EffectiveDate:" + profile.getEffectiveDate() + System.lineSeparator()
+                + "Gender:" + profile.getGender() + System.lineSeparator()
+                + "Age:" + profile.getAge() + System.lineSeparator()
+                + "Weight:" + profile.getWeight() + System.lineSeparator()
+                + "Height:" + profile.getHeight() + System.lineSeparator()
+                + "ActivityLevel:" + profile.getActivityLevel() + System.lineSeparator()
+                + "---" + System.lineSeparator();
+        writer.enqueue(SegmentedLogStore.PROFILE, profile.getEffectiveDate(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The latest version of a record: queued for writing, or else in the store
+    private ByteBuffer read(byte kind, LocalDate date) throws IOException {
+        byte[] queued = writer.pending(kind, date);
+        return queued != null ? ByteBuffer.wrap(queued) : store.read(kind, date);
+    }
+
     public DailyLog getOrCreateLog(LocalDate date) {
-        return logs.computeIfAbsent(date, DailyLogImpl::new);
+        DailyLog log = getLog(date);
+        if (log == null) {
+            log = new DailyLogImpl(date);
+            cache(date, log);
+            synchronized (this) {
+                availableDates.add(date);
+            }
+        }
+        return log;
     }
 
+    // The log of this date, read from the store on first access, or null if there is none
+    private DailyLog getLog(LocalDate date) {
+        DailyLog log = logs.get(date);
+        if (log != null) {
+            return log;
+        }
+        try {
+            ByteBuffer text = read(SegmentedLogStore.LOG, date);
+            if (text == null) {
+                return null;
+            }
+            log = buildLog(date, parseLog(text));
+        } catch (IOException e) {
+            System.err.println("Error loading log for date: " + date);
+            e.printStackTrace();
+            return null;
+        }
+        cache(date, log);
+        return log;
+    }
+
+    // Evicts least recently used logs beyond the capacity, skipping pinned (not yet written) ones
+    private void cache(LocalDate date, DailyLog log) {
+        logs.put(date, log);
+        Iterator<LocalDate> eldest = logs.keySet().iterator();
+        while (logs.size() > cacheCapacity && eldest.hasNext()) {
+            LocalDate candidate = eldest.next();
+            if (!candidate.equals(date) && !writer.isPending(SegmentedLogStore.LOG, candidate)) {
+                eldest.remove();
+            }
+        }
+    }
+
+    // Queues the log for writing; the caller does not wait on disk
     public void saveLog(LocalDate date) {
         DailyLog log = logs.get(date);
         if (log != null) {
-            File logFile = new File(LOGS_DIRECTORY + date + ".log");
-            try (PrintWriter writer = new PrintWriter(new FileWriter(logFile))) {
-                for (DailyLog.FoodEntry entry : log.getFoodEntries()) {
-                    writer.println(
-                            entry.getFood().getIdentifier() + ";" +
-                                    entry.getServings() + ";" +
-                                    entry.getTimestamp());
+            StringBuilder text = new StringBuilder();
+            for (DailyLog.FoodEntry entry : log.getFoodEntries()) {
+                text.append(entry.getFood().getIdentifier()).append(';')
+                        .append(entry.getServings()).append(';')
+                        .append(entry.getTimestamp()).append(System.lineSeparator());
+            }
+            writer.enqueue(SegmentedLogStore.LOG, date, text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Brings the reverse index up to date with the log of this date
+    private void indexLog(LocalDate date) {
+        DailyLog log = logs.get(date);
+        Set<String> foodIds = new HashSet<>();
+        if (log != null) {
+            for (DailyLog.FoodEntry entry : log.getFoodEntries()) {
+                foodIds.add(entry.getFood().getIdentifier());
+            }
+        }
+        synchronized (datesByFood) {
+            index(date, foodIds);
+        }
+    }
+
+    // Replaces the identifiers indexed for the date; an empty set still marks it indexed
+    private void index(LocalDate date, Set<String> foodIds) {
+        Set<String> previous = foodsByDate.put(date, foodIds);
+        if (previous != null) {
+            for (String foodId : previous) {
+                NavigableSet<LocalDate> dates = datesByFood.get(foodId);
+                dates.remove(date);
+                if (dates.isEmpty()) {
+                    datesByFood.remove(foodId);
                 }
-            } catch (IOException e) {
-                System.err.println("Error saving log for date: " + date);
-                e.printStackTrace();
             }
         }
+        for (String foodId : foodIds) {
+            datesByFood.computeIfAbsent(foodId, k -> new TreeSet<>()).add(date);
+        }
+    }
+
+    // Dates with at least one entry for the food, newest first. Does not wait for the
+    // background scan of the stored logs: see isIndexComplete.
+    public List<LocalDate> getDatesLogged(String foodIdentifier) {
+        synchronized (datesByFood) {
+            NavigableSet<LocalDate> dates = datesByFood.get(foodIdentifier);
+            return dates == null ? new ArrayList<>() : new ArrayList<>(dates.descendingSet());
+        }
+    }
+
+    // Whether every stored log has been scanned into the usage index yet
+    public boolean isIndexComplete() {
+        return !indexer.isAlive();
+    }
+
+    // Number of days the food was logged, e.g. to rank searches by usage. Does not
+    // wait: counts only cover the logs scanned so far.
+    public int getUsageCount(String foodIdentifier) {
+        synchronized (datesByFood) {
+            NavigableSet<LocalDate> dates = datesByFood.get(foodIdentifier);
+            return dates == null ? 0 : dates.size();
+        }
+    }
+
+    // Reindexes and saves a log after a change; it stays pinned in memory until written
+    private void logChanged(LocalDate date) {
+        indexLog(date);
+        saveLog(date);
     }
 
+    // Only logs in memory can have changes
     public void saveAllLogs() {
-        for (LocalDate date : logs.keySet()) {
+        for (LocalDate date : new ArrayList<>(logs.keySet())) {
             saveLog(date);
         }
     }
 
+    // Blocks until every save queued so far is in the store
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    // Writes the queued saves and closes the store
+    public void close() {
+        writer.close();
+        store.close();
+    }
+
     public void addFoodToLog(LocalDate date, Food food, double servings) {
         Command command = new AddFoodCommand(date, food, servings);
         command.execute();
         undoStack.push(command);
-        saveLog(date);
+        logChanged(date);
     }
 
     public void removeFoodFromLog(LocalDate date, int entryIndex) {
-        File logFile = new File(LOGS_DIRECTORY + date + ".log");
-        if (logFile.exists()) {
-            try {
-                logs.put(date, loadLogFromFile(logFile));
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(null,
-                        "Error reloading log file: " + e.getMessage(),
-                        "Error",
-                        JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-        }
-
-        DailyLog log = logs.get(date);
+        DailyLog log = getLog(date);
         if (log == null) {
             JOptionPane.showMessageDialog(null,
                     "No log found for the selected date.",
@@ -136,7 +341,7 @@ public class DailyLogManager {
         Command command = new RemoveFoodCommand(date, entryIndex);
         command.execute();
         undoStack.push(command);
-        saveLog(date);
+        logChanged(date);
     }
 
     public void undo() {
@@ -154,9 +359,9 @@ public class DailyLogManager {
 
         // Save the affected log after undo
         if (command instanceof AddFoodCommand) {
-            saveLog(((AddFoodCommand) command).date);
+            logChanged(((AddFoodCommand) command).date);
         } else if (command instanceof RemoveFoodCommand) {
-            saveLog(((RemoveFoodCommand) command).date);
+            logChanged(((RemoveFoodCommand) command).date);
         }
     }
 
@@ -175,16 +380,27 @@ public class DailyLogManager {
 
         // Save the affected log after redo
         if (command instanceof AddFoodCommand) {
-            saveLog(((AddFoodCommand) command).date);
+            logChanged(((AddFoodCommand) command).date);
         } else if (command instanceof RemoveFoodCommand) {
-            saveLog(((RemoveFoodCommand) command).date);
+            logChanged(((RemoveFoodCommand) command).date);
         }
     }
 
-    public List<LocalDate> getAvailableDates() {
-        return new ArrayList<>(logs.keySet()).stream()
-                .sorted(Comparator.reverseOrder())
-                .collect(Collectors.toList());
+    // Newest first
+    public synchronized List<LocalDate> getAvailableDates() {
+        return new ArrayList<>(availableDates.descendingSet());
+    }
+
+    private static class LogRecord {
+        final String foodId;
+        final double servings;
+        final long timestamp;
+
+        LogRecord(String foodId, double servings, long timestamp) {
+            this.foodId = foodId;
+            this.servings = servings;
+            this.timestamp = timestamp;
+        }
     }
 
     private interface Command {
@@ -211,7 +427,7 @@ public class DailyLogManager {
 
         @Override
         public void undo() {
-            DailyLog log = logs.get(date);
+            DailyLog log = getLog(date);
             if (log != null) {
                 log.updateFoodEntryServings(food, -servings);
             }
@@ -226,7 +442,7 @@ public class DailyLogManager {
         public RemoveFoodCommand(LocalDate date, int entryIndex) {
             this.date = date;
             this.entryIndex = entryIndex;
-            DailyLog log = logs.get(date);
+            DailyLog log = getLog(date);
             if (log != null && entryIndex >= 0 && entryIndex < log.getFoodEntries().size()) {
                 this.removedEntry = log.getFoodEntries().get(entryIndex);
             }
@@ -234,7 +450,7 @@ public class DailyLogManager {
 
         @Override
         public void execute() {
-            DailyLog log = logs.get(date);
+            DailyLog log = getLog(date);
             if (log != null && entryIndex >= 0 && entryIndex < log.getFoodEntries().size()) {
                 removedEntry = log.getFoodEntries().get(entryIndex);
                 log.removeFoodEntry(entryIndex);
@@ -243,7 +459,7 @@ public class DailyLogManager {
 
         @Override
         public void undo() {
-            DailyLog log = logs.get(date);
+            DailyLog log = getLog(date);
             if (log != null && removedEntry != null) {
                 log.addFoodEntryAtIndex(removedEntry, entryIndex);
             }
@@ -0,0 +1,282 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Finds near-duplicate foods, e.g. "Cheese Sandwich" vs "Cheese sandwich, white
+// bread" from an imported vendor catalog. Each food is reduced to the set of words of
+// its identifier and keywords, and two foods are near-duplicates when the Jaccard
+// similarity of their sets reaches the threshold.
+//
+// To avoid comparing against every food, each set gets a MinHash signature of
+// BANDS * ROWS hashes, and every band of the signature is a bucket key (locality-
+// sensitive hashing): foods sharing a bucket are candidates, then checked exactly.
+// With 16 bands of 3 rows, foods at similarity 0.5 share a bucket ~88% of the time,
+// at 0.7 over 99%, at 0.2 under 12%.
+//
+// Listens to the database so foods added later are indexed too; the foods already
+// in it are indexed on first use.
+public class DuplicateDetector implements FoodDatabase.MutationListener {
+    private static final int BANDS = 16;
+    private static final int ROWS = 3;
+    private static final long[] SEEDS = new long[BANDS * ROWS];
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < SEEDS.length; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private final FoodDatabase database;
+    private final double threshold;
+    private boolean indexed;
+
+    // Keyed by key(food): word sets, the bucket keys of each food, and bucket members
+    private final Map<String, Set<String>> wordsByFood = new HashMap<>();
+    private final Map<String, long[]> bucketsByFood = new HashMap<>();
+    // Buckets are small lists: most hold a single food
+    private final Map<Long, List<String>> buckets = new HashMap<>();
+
+    // A near-duplicate pair with its similarity, 0..1
+    public static class Candidate {
+        private final Food food;
+        private final Food duplicateOf;
+        private final double similarity;
+
+        Candidate(Food food, Food duplicateOf, double similarity) {
+            this.food = food;
+            this.duplicateOf = duplicateOf;
+            this.similarity = similarity;
+        }
+
+        public Food getFood() {
+            return food;
+        }
+
+        public Food getDuplicateOf() {
+            return duplicateOf;
+        }
+
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        @Override
+        public String toString() {
+            return food.getIdentifier() + " ~ " + duplicateOf.getIdentifier()
+                    + String.format(" (%.0f%%)", similarity * 100);
+        }
+    }
+
+    public DuplicateDetector(FoodDatabase database, double threshold) {
+        this.database = database;
+        this.threshold = threshold;
+    }
+
+    // Indexes the database's foods and every food added or changed from now on
+    public static DuplicateDetector open(FoodDatabase database) {
+        DuplicateDetector detector = new DuplicateDetector(database, 0.5);
+        database.addMutationListener(detector);
+        return detector;
+    }
+
+    public void close() {
+        database.removeMutationListener(this);
+    }
+
+    @Override
+    public synchronized void foodChanged(Food food) {
+        if (indexed) {
+            index(food);
+        }
+    }
+
+    // Foods in the database similar to this one (not counting its own entry, if it is
+    // already there), most similar first
+    public synchronized List<Candidate> findCandidates(Food food) {
+        ensureIndexed();
+        List<Candidate> candidates = new ArrayList<>();
+        FoodSnapshot snapshot = database.snapshot();
+        for (String other : candidatesOf(food, this)) {
+            Food duplicate = foodOf(snapshot, other);
+            if (duplicate != null) {
+                candidates.add(new Candidate(food, duplicate, similarity(words(food), wordsByFood.get(other))));
+            }
+        }
+        candidates.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        return candidates;
+    }
+
+    // Near-duplicate pairs for a whole import: each food against the database and
+    // against the other foods of the import, each pair reported once, most similar
+    // first. Works whether or not the foods have been added yet.
+    public synchronized List<Candidate> report(Collection<? extends Food> foods) {
+        ensureIndexed();
+        DuplicateDetector imported = new DuplicateDetector(database, threshold);
+        imported.indexed = true;
+        Map<String, Food> importedFoods = new HashMap<>();
+        Set<String> reported = new HashSet<>();
+        List<Candidate> candidates = new ArrayList<>();
+        FoodSnapshot snapshot = database.snapshot();
+        for (Food food : foods) {
+            String key = key(food);
+            Set<String> others = candidatesOf(food, this);
+            others.addAll(candidatesOf(food, imported));
+            for (String other : others) {
+                String pair = key.compareTo(other) < 0 ? key + "\n" + other : other + "\n" + key;
+                if (!reported.add(pair)) {
+                    continue;
+                }
+                Food duplicate = importedFoods.containsKey(other) ? importedFoods.get(other) : foodOf(snapshot, other);
+                Set<String> otherWords = imported.wordsByFood.containsKey(other)
+                        ? imported.wordsByFood.get(other)
+                        : wordsByFood.get(other);
+                if (duplicate != null) {
+                    candidates.add(new Candidate(food, duplicate, similarity(words(food), otherWords)));
+                }
+            }
+            imported.index(food);
+            importedFoods.put(key, food);
+        }
+        candidates.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        return candidates;
+    }
+
+    private void ensureIndexed() {
+        if (!indexed) {
+            for (Food food : database.getAllFoods()) {
+                index(food);
+            }
+            indexed = true;
+        }
+    }
+
+    private void index(Food food) {
+        String key = key(food);
+        unindex(key);
+        Set<String> words = words(food);
+        if (words.isEmpty()) {
+            return;
+        }
+        long[] bucketKeys = bucketKeys(words);
+        wordsByFood.put(key, words);
+        bucketsByFood.put(key, bucketKeys);
+        for (long bucketKey : bucketKeys) {
+            List<String> bucket = buckets.computeIfAbsent(bucketKey, k -> new ArrayList<>(1));
+            if (!bucket.contains(key)) {
+                bucket.add(key);
+            }
+        }
+    }
+
+    private void unindex(String key) {
+        long[] bucketKeys = bucketsByFood.remove(key);
+        if (bucketKeys == null) {
+            return;
+        }
+        wordsByFood.remove(key);
+        for (long bucketKey : bucketKeys) {
+            List<String> bucket = buckets.get(bucketKey);
+            if (bucket != null && bucket.remove(key) && bucket.isEmpty()) {
+                buckets.remove(bucketKey);
+            }
+        }
+    }
+
+    // Keys of the foods in the detector that share a bucket with the food and reach
+    // the threshold, other than the food's own entry
+    private Set<String> candidatesOf(Food food, DuplicateDetector detector) {
+        Set<String> words = words(food);
+        Set<String> candidates = new LinkedHashSet<>();
+        if (words.isEmpty()) {
+            return candidates;
+        }
+        String key = key(food);
+        Set<String> checked = new HashSet<>();
+        for (long bucketKey : bucketKeys(words)) {
+            for (String other : detector.buckets.getOrDefault(bucketKey, List.of())) {
+                if (!other.equals(key) && checked.add(other)
+                        && similarity(words, detector.wordsByFood.get(other)) >= threshold) {
+                    candidates.add(other);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static long[] bucketKeys(Set<String> words) {
+        long[] signature = new long[SEEDS.length];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (String word : words) {
+            long hash = word.hashCode();
+            for (int i = 0; i < SEEDS.length; i++) {
+                signature[i] = Math.min(signature[i], mix(hash ^ SEEDS[i]));
+            }
+        }
+        long[] bucketKeys = new long[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            long bucketKey = band;
+            for (int row = 0; row < ROWS; row++) {
+                bucketKey = mix(bucketKey * 31 + signature[band * ROWS + row]);
+            }
+            bucketKeys[band] = bucketKey;
+        }
+        return bucketKeys;
+    }
+
+    // Words of the identifier and keywords, case-folded
+    private static Set<String> words(Food food) {
+        Set<String> words = new HashSet<>();
+        addWords(food.getIdentifier(), words);
+        for (String keyword : food.getKeywords()) {
+            addWords(keyword, words);
+        }
+        return words;
+    }
+
+    private static void addWords(String text, Set<String> words) {
+        for (String word : WORD_SEPARATOR.split(KeywordDictionary.normalize(text))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+    }
+
+    private static double similarity(Set<String> a, Set<String> b) {
+        int shared = 0;
+        for (String word : a) {
+            if (b.contains(word)) {
+                shared++;
+            }
+        }
+        return (double) shared / (a.size() + b.size() - shared);
+    }
+
+    // Identifiers are only unique per type
+    private static String key(Food food) {
+        return (food instanceof CompositeFood ? "C;" : "B;") + food.getIdentifier();
+    }
+
+    private static Food foodOf(FoodSnapshot snapshot, String key) {
+        String identifier = key.substring(2);
+        return key.startsWith("C;") ? snapshot.getCompositeFood(identifier) : snapshot.getBasicFood(identifier);
+    }
+
+    // Finalizer of SplitMix64, a cheap hash with good avalanche
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -5,8 +5,12 @@ import java.util.List;
 public interface Food {
     String getIdentifier();
 
+    // Read-only view of the keywords as entered
     List<String> getKeywords();
 
+    // Case-folded keywords as KeywordDictionary ids; shared array, do not modify
+    int[] getKeywordIds();
+
     double getCaloriesPerServing();
 
     double calculateTotalCalories(double servings);
@@ -1,115 +1,483 @@
 package model;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToIntFunction;
 
+// Reads are served from the latest published FoodSnapshot without locking.
+// Mutations are serialized: each one (or each batch) builds the next snapshot,
+// copying only the structures it changes, and publishes it atomically when done.
+// Composites already published are never modified; a change to a recipe copies
+// the composite and every composite that contains it into the new version.
+//
+// A database can also be layered over a shared catalog: it then only stores the
+// foods added or replaced through it, and the catalog stays untouched.
 public class FoodDatabase {
     private static FoodDatabase instance;
 
-    private List<BasicFood> basicFoods;
-    private List<CompositeFood> compositeFoods;
+    private final Object writeLock = new Object();
+    private volatile FoodSnapshot published;
+
+    // Writer state, only touched with writeLock held: the snapshot being built, the
+    // one it started from, and the composites created for it (safe to modify in place)
+    private volatile Thread writer;
+    private int batchDepth;
+    private FoodSnapshot base;
+    private FoodSnapshot working;
+    private final Set<CompositeFood> freshComposites = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Set<String>> ownParentSets = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Foods changed in the working version, for the listeners once it is published
+    private final List<Food> changedFoods = new ArrayList<>();
+    // Published composites the working version replaces; they stop counting as users
+    // of their components once it is published
+    private final List<CompositeFood> retiredComposites = new ArrayList<>();
+
+    // Notified after every add, replace or component change is published, e.g. to journal it
+    private final List<MutationListener> mutationListeners = new CopyOnWriteArrayList<>();
+
+    // Days each food was logged, for ranking searches; null ranks by keywords only
+    private volatile ToIntFunction<String> usageSource;
+
+    // Food type facet for searches
+    public enum FoodType {
+        ALL, BASIC, COMPOSITE
+    }
+
+    public interface MutationListener {
+        void foodChanged(Food food);
+    }
 
     public FoodDatabase() {
-        basicFoods = new ArrayList<>();
-        compositeFoods = new ArrayList<>();
+        this(new ObjectBasicFoodStore());
+    }
+
+    // E.g. a ColumnarBasicFoodStore for large catalogs
+    public FoodDatabase(BasicFoodStore basicFoodStore) {
+        published = new FoodSnapshot(basicFoodStore, null);
+    }
+
+    // Per-user database over a read-only catalog (e.g. the snapshot of a database
+    // loaded once and shared). Foods added or replaced here shadow catalog foods with
+    // the same identifier and type; composites of the catalog that use a replaced food
+    // are copied into this layer. Memory grows with this layer's own foods only.
+    public FoodDatabase(FoodSnapshot catalog) {
+        published = new FoodSnapshot(new ObjectBasicFoodStore(), catalog);
     }
 
     public static synchronized FoodDatabase getInstance() {
         if (instance == null) {
-            instance = new FoodDatabase();
+            // -Dyada.columnarCatalog=true keeps basic foods in primitive columns
+            instance = Boolean.getBoolean("yada.columnarCatalog")
+                    ? new FoodDatabase(new ColumnarBasicFoodStore())
+                    : new FoodDatabase();
         }
         return instance;
     }
 
-    public void addBasicFood(BasicFood food) {
-        // Check if food with same identifier already exists
-        if (basicFoods.stream().noneMatch(f -> f.getIdentifier().equals(food.getIdentifier()))) {
-            basicFoods.add(food);
-        } else {
-            throw new IllegalArgumentException("A food with this identifier already exists.");
+    // The latest published version, for a series of reads that must agree with each
+    // other. Inside a batch, the writing thread sees its own changes.
+    public FoodSnapshot snapshot() {
+        return writer == Thread.currentThread() ? working : published;
+    }
+
+    // Applies the mutations as one new version: readers see all of them or none.
+    // Batches nest; changes are published when the outermost one ends, and dropped
+    // if it ends with an exception. A failure that an enclosing batch catches is left
+    // for that batch to handle. Loads and imports should use one batch, since each
+    // version copies what it changes.
+    public void batch(Runnable mutations) {
+        synchronized (writeLock) {
+            begin();
+            boolean completed = false;
+            try {
+                mutations.run();
+                completed = true;
+            } finally {
+                end(completed);
+            }
+        }
+    }
+
+    private void begin() {
+        if (batchDepth++ == 0) {
+            base = published;
+            working = new FoodSnapshot(base);
+            writer = Thread.currentThread();
+        }
+    }
+
+    // Listeners hear of the changes once they are published, and not at all if the
+    // version is dropped
+    private void end(boolean completed) {
+        if (--batchDepth == 0) {
+            if (completed) {
+                published = working;
+            }
+            writer = null;
+            working = null;
+            base = null;
+            freshComposites.clear();
+            ownParentSets.clear();
+            List<Food> changed = new ArrayList<>(changedFoods);
+            changedFoods.clear();
+            List<CompositeFood> retired = new ArrayList<>(retiredComposites);
+            retiredComposites.clear();
+            if (completed) {
+                for (CompositeFood composite : retired) {
+                    composite.releaseReferences();
+                }
+                for (Food food : changed) {
+                    for (MutationListener listener : mutationListeners) {
+                        listener.foodChanged(food);
+                    }
+                }
+            }
         }
     }
 
+    public void addBasicFood(BasicFood food) {
+        batch(() -> {
+            // Check if food with same identifier already exists
+            if (working.containsBasicFood(food.getIdentifier())) {
+                throw new IllegalArgumentException("A food with this identifier already exists.");
+            }
+            ownBasicFoods().add(food);
+            FoodSearchIndex index = ownSearchIndex();
+            if (index != null) {
+                index.add(food);
+            }
+            fireFoodChanged(food);
+        });
+    }
+
     public void addCompositeFood(CompositeFood food) {
-        // Check if food with same identifier already exists
-        if (compositeFoods.stream().noneMatch(f -> f.getIdentifier().equals(food.getIdentifier()))) {
-            compositeFoods.add(food);
-        } else {
-            throw new IllegalArgumentException("A composite food with this identifier already exists.");
+        batch(() -> {
+            // Check if food with same identifier already exists
+            if (working.containsCompositeFood(food.getIdentifier())) {
+                throw new IllegalArgumentException("A composite food with this identifier already exists.");
+            }
+            ownCompositeFoods().put(food.getIdentifier(), food);
+            freshComposites.add(food);
+            FoodSearchIndex index = ownSearchIndex();
+            if (index != null) {
+                index.add(food);
+            }
+            linkComponents(food);
+            fireFoodChanged(food);
+        });
+    }
+
+    // Adds a component to a composite already in the database, invalidating the
+    // cached calories of every composite that contains it. The database's version of
+    // the composite is changed, which is a copy if the given one was already published.
+    public void addComponent(CompositeFood composite, Food food, double servings) {
+        batch(() -> {
+            if (!working.containsCompositeFood(composite.getIdentifier())) {
+                throw new IllegalArgumentException("No food with this identifier exists.");
+            }
+            ownAncestors(composite.getIdentifier(), true);
+            CompositeFood current = working.compositeFoods.get(composite.getIdentifier());
+            current.addComponent(food, servings);
+            ownParentSet(food.getIdentifier()).add(current.getIdentifier());
+            fireFoodChanged(current);
+        });
+    }
+
+    // Replaces the food with the same identifier and type. Composites using the old
+    // version are copied and pointed at the new one, and only they are invalidated.
+    public void replaceFood(Food food) {
+        batch(() -> {
+            Food oldFood;
+            if (food instanceof CompositeFood) {
+                oldFood = working.getCompositeFood(food.getIdentifier());
+            } else {
+                oldFood = working.getBasicFood(food.getIdentifier());
+            }
+            if (oldFood == null) {
+                throw new IllegalArgumentException("No food with this identifier exists.");
+            }
+
+            ownAncestors(food.getIdentifier(), false);
+            FoodSearchIndex index = ownSearchIndex();
+            if (index != null) {
+                index.replace(oldFood, food);
+            }
+            if (food instanceof CompositeFood) {
+                unlinkComponents((CompositeFood) oldFood);
+                // A catalog composite stays in use by the catalog
+                if (working.compositeFoods.get(food.getIdentifier()) == oldFood) {
+                    retiredComposites.add((CompositeFood) oldFood);
+                }
+                ((CompositeFood) food).shareReferences((CompositeFood) oldFood);
+                ownCompositeFoods().put(food.getIdentifier(), (CompositeFood) food);
+                freshComposites.add((CompositeFood) food);
+                linkComponents((CompositeFood) food);
+            } else {
+                ownBasicFoods().replace((BasicFood) food);
+            }
+
+            for (String parentId : working.parentIdsOf(food.getIdentifier())) {
+                CompositeFood parent = working.compositeFoods.get(parentId);
+                if (parent != null) {
+                    parent.replaceComponent(oldFood, food);
+                }
+            }
+            fireFoodChanged(food);
+        });
+    }
+
+    public void addMutationListener(MutationListener listener) {
+        mutationListeners.add(listener);
+    }
+
+    public void removeMutationListener(MutationListener listener) {
+        mutationListeners.remove(listener);
+    }
+
+    // E.g. DailyLogManager::getUsageCount
+    public void setUsageSource(ToIntFunction<String> usageSource) {
+        this.usageSource = usageSource;
+    }
+
+    private void fireFoodChanged(Food food) {
+        changedFoods.add(food);
+    }
+
+    private void linkComponents(CompositeFood composite) {
+        // By identifier, so lazily loaded composites stay unresolved
+        for (String componentId : composite.getComponentIdentifiers()) {
+            ownParentSet(componentId).add(composite.getIdentifier());
         }
     }
 
-    public List<Food> searchFoods(List<String> keywords, boolean matchAll) {
-        List<Food> allFoods = new ArrayList<>();
-        allFoods.addAll(basicFoods);
-        allFoods.addAll(compositeFoods);
+    private void unlinkComponents(CompositeFood composite) {
+        for (String componentId : composite.getComponentIdentifiers()) {
+            if (working.parentComposites.containsKey(componentId)) {
+                ownParentSet(componentId).remove(composite.getIdentifier());
+            }
+        }
+    }
 
-        return allFoods.stream()
-                .filter(food -> matchKeywords(food, keywords, matchAll))
-                .collect(Collectors.toList());
+    // Discards the stored or memoized calories of a composite and of everything that
+    // uses it, e.g. when calories loaded from a file turn out to be out of date
+    public void markStale(String identifier) {
+        batch(() -> {
+            ownAncestors(identifier, true);
+        });
     }
 
-    private boolean matchKeywords(Food food, List<String> searchKeywords, boolean matchAll) {
-        if (searchKeywords.isEmpty()) {
-            return true; // No keywords to match, return true for all foods
+    // Makes every composite that contains the food, directly or through other
+    // composites (and the food itself if includeSelf), modifiable in the working
+    // version, and clears their memoized calories. Published composites are copied
+    // and the copies pointed at each other. Returns each affected composite mapped
+    // to its working version.
+    private Map<CompositeFood, CompositeFood> ownAncestors(String identifier, boolean includeSelf) {
+        List<CompositeFood> affected = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(identifier);
+        while (!pending.isEmpty()) {
+            String current = pending.pop();
+            if (!visited.add(current)) {
+                continue;
+            }
+            CompositeFood composite = working.getCompositeFood(current);
+            if (composite != null && (includeSelf || !current.equals(identifier))) {
+                affected.add(composite);
+            }
+            working.compiledComposites.remove(current);
+            pending.addAll(working.parentIdsOf(current));
+        }
+
+        // Copies are made before anything changes, so a lazy composite resolves
+        // against the version it belongs to
+        Map<CompositeFood, CompositeFood> versions = new IdentityHashMap<>();
+        for (CompositeFood composite : affected) {
+            versions.put(composite, freshComposites.contains(composite) ? composite : composite.copy());
+        }
+        for (Map.Entry<CompositeFood, CompositeFood> entry : versions.entrySet()) {
+            CompositeFood version = entry.getValue();
+            if (freshComposites.add(version)) {
+                // A catalog composite copied into this layer now has its own components
+                boolean fromCatalog = !working.compositeFoods.containsKey(version.getIdentifier());
+                ownCompositeFoods().put(version.getIdentifier(), version);
+                // The index looks foods up by identifier in the version it is bound to,
+                // so it must be this version's for the copy to be found
+                FoodSearchIndex index = ownSearchIndex();
+                if (!fromCatalog) {
+                    retiredComposites.add(entry.getKey());
+                } else {
+                    linkComponents(version);
+                    if (index != null) {
+                        index.add(version);
+                    }
+                }
+            }
+        }
+        for (CompositeFood version : versions.values()) {
+            version.swapComponents(versions);
+            version.invalidateCalories();
+        }
+        return versions;
+    }
+
+    // The working version's structures, copied from the published version on first
+    // change. The basic food store and search index are layered over the published
+    // ones rather than copied in full (see LayeredBasicFoodStore and FoodSearchIndex.copy).
+    private BasicFoodStore ownBasicFoods() {
+        if (working.basicFoods == base.basicFoods) {
+            working.basicFoods = LayeredBasicFoodStore.over(base.basicFoods);
+        }
+        return working.basicFoods;
+    }
+
+    private Map<String, CompositeFood> ownCompositeFoods() {
+        if (working.compositeFoods == base.compositeFoods) {
+            working.compositeFoods = new LinkedHashMap<>(base.compositeFoods);
+        }
+        return working.compositeFoods;
+    }
+
+    // The working version's parent set of the component, created or copied as needed
+    private Set<String> ownParentSet(String componentId) {
+        if (working.parentComposites == base.parentComposites) {
+            working.parentComposites = new HashMap<>(base.parentComposites);
         }
+        Set<String> parents = working.parentComposites.get(componentId);
+        if (parents == null || !ownParentSets.contains(parents)) {
+            parents = parents == null ? new LinkedHashSet<>() : new LinkedHashSet<>(parents);
+            working.parentComposites.put(componentId, parents);
+            ownParentSets.add(parents);
+        }
+        return parents;
+    }
 
-        // Convert food keywords and search keywords to lowercase for case-insensitive
-        // matching
-        List<String> foodKeywords = food.getKeywords().stream()
-                .map(String::toLowerCase)
-                .toList();
-
-        List<String> lowerCaseSearchKeywords = searchKeywords.stream()
-                .map(String::toLowerCase)
-                .toList();
-
-        if (matchAll) {
-            // Match all keywords (AND logic)
-            return lowerCaseSearchKeywords.stream()
-                    .allMatch(keyword -> foodKeywords.stream().anyMatch(foodKeyword -> foodKeyword.contains(keyword)));
-        } else {
-            // Match any keyword (OR logic)
-            return lowerCaseSearchKeywords.stream()
-                    .anyMatch(keyword -> foodKeywords.stream().anyMatch(foodKeyword -> foodKeyword.contains(keyword)));
+    // Null while the working version has no index yet; it is then built on first use
+    private FoodSearchIndex ownSearchIndex() {
+        FoodSearchIndex index = working.searchIndex;
+        if (index != null && index == base.searchIndex) {
+            index = index.copy(working);
+            working.searchIndex = index;
         }
+        return index;
+    }
+
+    public FoodVector compile(CompositeFood composite) {
+        return snapshot().compile(composite);
+    }
+
+    public FoodVector compile(DailyLog log) {
+        return snapshot().compile(log);
+    }
+
+    public List<CompositeFood.FoodServing> getBasicIngredients(DailyLog log) {
+        return snapshot().getBasicIngredients(log);
+    }
+
+    public double calculateCalories(FoodVector vector) {
+        return snapshot().calculateCalories(vector);
+    }
+
+    public List<CompositeFood> getParentComposites(String identifier) {
+        return snapshot().getParentComposites(identifier);
+    }
+
+    public List<CompositeFood> getCompositesContaining(String identifier) {
+        return snapshot().getCompositesContaining(identifier);
+    }
+
+    public List<Food> searchFoods(List<String> keywords, boolean matchAll) {
+        return snapshot().searchFoods(keywords, matchAll);
+    }
+
+    public List<Food> searchFoods(List<String> keywords, boolean matchAll, FoodType type) {
+        return snapshot().searchFoods(keywords, matchAll, type);
+    }
+
+    public List<Food> searchFoods(List<String> keywords, boolean matchAll, FoodType type, int limit) {
+        return snapshot().searchFoods(keywords, matchAll, type, limit);
+    }
+
+    public List<Food> searchFoodsByExactKeywords(List<String> keywords, boolean matchAll, FoodType type) {
+        return snapshot().searchFoodsByExactKeywords(keywords, matchAll, type);
+    }
+
+    public List<Food> searchFoodsFuzzy(List<String> keywords, boolean matchAll, FoodType type) {
+        return snapshot().searchFoodsFuzzy(keywords, matchAll, type);
+    }
+
+    // Best pageSize matches after the cursor (null for the first page); see FoodSnapshot.searchRanked.
+    // Later pages are ranked in the version the first one was.
+    public SearchPage searchRanked(List<String> keywords, boolean matchAll, FoodType type,
+            int pageSize, SearchPage.Cursor after) {
+        return searchRanked(keywords, matchAll, false, type, pageSize, after);
+    }
+
+    public SearchPage searchRanked(List<String> keywords, boolean matchAll, boolean fuzzy, FoodType type,
+            int pageSize, SearchPage.Cursor after) {
+        FoodSnapshot version = after != null ? after.getSnapshot() : snapshot();
+        return version.searchRanked(keywords, matchAll, fuzzy, type, pageSize, after, usageSource);
     }
 
     public List<BasicFood> getBasicFoods() {
-        return new ArrayList<>(basicFoods);
+        return snapshot().getBasicFoods();
     }
 
     public List<CompositeFood> getCompositeFoods() {
-        return new ArrayList<>(compositeFoods);
+        return snapshot().getCompositeFoods();
     }
 
     // Method to get all foods
     public List<Food> getAllFoods() {
-        List<Food> allFoods = new ArrayList<>();
-        allFoods.addAll(basicFoods);
-        allFoods.addAll(compositeFoods);
-        return allFoods;
+        return snapshot().getAllFoods();
     }
 
-    // Method to find food by identifier
-    public Food findFoodByIdentifier(String identifier) {
-        for (BasicFood food : basicFoods) {
-            if (food.getIdentifier().equals(identifier)) {
-                return food;
+    // Switches to a different basic food store, e.g. one backed by a catalog file
+    public void setBasicFoodStore(BasicFoodStore basicFoodStore) {
+        batch(() -> {
+            if (working.basicFoods.size() > 0 || !working.compositeFoods.isEmpty()) {
+                throw new IllegalStateException("The basic food store can only be changed while the database is empty.");
             }
-        }
-        for (CompositeFood food : compositeFoods) {
-            if (food.getIdentifier().equals(identifier)) {
-                return food;
-            }
-        }
-        return null;
+            working.basicFoods = basicFoodStore;
+            working.searchIndex = null;
+            working.compiledComposites.clear();
+        });
+    }
+
+    public BasicFood getBasicFood(String identifier) {
+        return snapshot().getBasicFood(identifier);
+    }
+
+    public CompositeFood getCompositeFood(String identifier) {
+        return snapshot().getCompositeFood(identifier);
+    }
+
+    // Method to find food by identifier (basic foods take precedence, as before)
+    public Food findFoodByIdentifier(String identifier) {
+        return snapshot().findFoodByIdentifier(identifier);
     }
 
     // Clear all foods (useful for testing or resetting)
     public void clearAllFoods() {
-        basicFoods.clear();
-        compositeFoods.clear();
+        batch(() -> {
+            ownBasicFoods().clear();
+            working.compositeFoods = new LinkedHashMap<>();
+            working.searchIndex = null;
+            working.compiledComposites.clear();
+            working.parentComposites = new HashMap<>();
+            ownParentSets.clear();
+            freshComposites.clear();
+        });
     }
-}
\ No newline at end of file
+}
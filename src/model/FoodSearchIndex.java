@@ -0,0 +1,445 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+// Keyword search engine for the food database. Foods are numbered in insertion
+// order; every KeywordDictionary term has a posting bitmap of the foods carrying
+// it, and each food type is one more bitmap, so a query is a handful of AND/OR
+// operations over compressed bitmaps. Only identifiers are kept per food; results
+// are resolved through the owning snapshot so foods need not stay materialized.
+//
+// The index of a new version does not copy the previous one: it is an overlay
+// over it holding only the foods changed since, and is merged into a new flat
+// index once the changes are no longer few (see copy).
+public class FoodSearchIndex {
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int MIN_OVERLAY_SIZE = 256;
+
+    private final FoodSnapshot foods;
+    private final List<String> identifiers;
+    private final CompressedBitmap basicFoods;
+    private final CompressedBitmap compositeFoods;
+    private final Map<Integer, CompressedBitmap> termPostings;
+    private final IdentifierTable basicOrdinals;
+    private final IdentifierTable compositeOrdinals;
+    private final TrigramIndex trigramIndex;
+    // Typo-tolerant matching: keyword terms and the words of food identifiers, the
+    // latter with their own postings since they are not keywords
+    private final BKTree fuzzyIndex;
+    private final Map<Integer, CompressedBitmap> nameWordPostings;
+
+    // In an overlay, the flat index of an earlier version, which is never changed
+    // again. The structures above then hold only the foods added since, numbered
+    // on from baseSize, and the keywords of base foods replaced since, whose base
+    // postings are ignored.
+    private FoodSearchIndex base;
+    private int baseSize;
+    private final CompressedBitmap replacedOrdinals;
+
+    public FoodSearchIndex(FoodSnapshot foods) {
+        this(foods, null);
+    }
+
+    private FoodSearchIndex(FoodSnapshot foods, FoodSearchIndex base) {
+        this.foods = foods;
+        this.base = base;
+        baseSize = base == null ? 0 : base.size();
+        replacedOrdinals = new CompressedBitmap();
+        identifiers = new ArrayList<>();
+        basicFoods = new CompressedBitmap();
+        compositeFoods = new CompressedBitmap();
+        termPostings = new HashMap<>();
+        basicOrdinals = new IdentifierTable(this::identifierAt);
+        compositeOrdinals = new IdentifierTable(this::identifierAt);
+        trigramIndex = new TrigramIndex();
+        fuzzyIndex = new BKTree();
+        nameWordPostings = new HashMap<>();
+    }
+
+    // Deep copy resolving results through another snapshot; ordinals are unchanged
+    // and an overlay keeps sharing its base
+    private FoodSearchIndex(FoodSearchIndex source, FoodSnapshot foods) {
+        this.foods = foods;
+        base = source.base;
+        baseSize = source.baseSize;
+        replacedOrdinals = source.replacedOrdinals.copy();
+        identifiers = new ArrayList<>(source.identifiers);
+        basicFoods = source.basicFoods.copy();
+        compositeFoods = source.compositeFoods.copy();
+        termPostings = new HashMap<>();
+        for (Map.Entry<Integer, CompressedBitmap> entry : source.termPostings.entrySet()) {
+            termPostings.put(entry.getKey(), entry.getValue().copy());
+        }
+        basicOrdinals = source.basicOrdinals.copy(this::identifierAt);
+        compositeOrdinals = source.compositeOrdinals.copy(this::identifierAt);
+        trigramIndex = source.trigramIndex.copy();
+        fuzzyIndex = source.fuzzyIndex.copy();
+        nameWordPostings = new HashMap<>();
+        for (Map.Entry<Integer, CompressedBitmap> entry : source.nameWordPostings.entrySet()) {
+            nameWordPostings.put(entry.getKey(), entry.getValue().copy());
+        }
+    }
+
+    // Index with the same foods for the next version, resolving results through its
+    // snapshot. A flat index becomes the base of an empty overlay, and an overlay is
+    // copied while its changes stay within about the square root of the base size;
+    // past that it is merged into a new flat index. A single change then costs
+    // O(sqrt n) amortized instead of a copy of the whole index.
+    public FoodSearchIndex copy(FoodSnapshot foods) {
+        if (base == null) {
+            return new FoodSearchIndex(foods, this);
+        }
+        if (identifiers.size() + replacedOrdinals.cardinality()
+                <= Math.max(MIN_OVERLAY_SIZE, (int) Math.sqrt(baseSize))) {
+            return new FoodSearchIndex(this, foods);
+        }
+        return flatten(foods);
+    }
+
+    // The base with this overlay's changes applied, as a new flat index
+    private FoodSearchIndex flatten(FoodSnapshot foods) {
+        FoodSearchIndex flat = new FoodSearchIndex(base, foods);
+        flat.identifiers.addAll(identifiers);
+        flat.basicFoods.orInPlace(basicFoods);
+        flat.compositeFoods.orInPlace(compositeFoods);
+        for (int i = 0; i < identifiers.size(); i++) {
+            int ordinal = baseSize + i;
+            (compositeFoods.contains(ordinal) ? flat.compositeOrdinals : flat.basicOrdinals)
+                    .put(identifiers.get(i), ordinal);
+        }
+        for (CompressedBitmap posting : flat.termPostings.values()) {
+            removeAll(posting, replacedOrdinals);
+        }
+        for (Map.Entry<Integer, CompressedBitmap> entry : termPostings.entrySet()) {
+            CompressedBitmap posting = flat.termPostings.get(entry.getKey());
+            if (posting == null) {
+                flat.termPostings.put(entry.getKey(), entry.getValue().copy());
+                flat.trigramIndex.add(entry.getKey());
+                flat.fuzzyIndex.add(entry.getKey());
+            } else {
+                posting.orInPlace(entry.getValue());
+            }
+        }
+        for (Map.Entry<Integer, CompressedBitmap> entry : nameWordPostings.entrySet()) {
+            flat.nameWordPostings.computeIfAbsent(entry.getKey(), k -> new CompressedBitmap())
+                    .orInPlace(entry.getValue());
+            flat.fuzzyIndex.add(entry.getKey());
+        }
+        return flat;
+    }
+
+    public void add(Food food) {
+        int ordinal = size();
+        identifiers.add(food.getIdentifier());
+        if (food instanceof CompositeFood) {
+            compositeFoods.add(ordinal);
+            compositeOrdinals.put(food.getIdentifier(), ordinal);
+        } else {
+            basicFoods.add(ordinal);
+            basicOrdinals.put(food.getIdentifier(), ordinal);
+        }
+        addKeywords(food, ordinal);
+        // Identifiers never change on replace, so their words are only indexed here
+        for (String word : WORD_SEPARATOR.split(food.getIdentifier())) {
+            if (!word.isEmpty()) {
+                int wordId = KeywordDictionary.getInstance().intern(word);
+                nameWordPostings.computeIfAbsent(wordId, k -> new CompressedBitmap()).add(ordinal);
+                fuzzyIndex.add(wordId);
+            }
+        }
+    }
+
+    // Reindexes the keywords of a food being replaced, keeping its position in
+    // results, or adds it if the old version is not indexed here (as when it
+    // shadows a catalog food). Call before the database stops returning the old version.
+    public void replace(Food oldFood, Food newFood) {
+        int ordinal = ordinalOf(oldFood);
+        if (ordinal < 0) {
+            add(newFood);
+            return;
+        }
+        if (ordinal < baseSize && !replacedOrdinals.contains(ordinal)) {
+            // The base postings of the old keywords are ignored from now on
+            replacedOrdinals.add(ordinal);
+        } else {
+            for (int termId : oldFood.getKeywordIds()) {
+                CompressedBitmap posting = termPostings.get(termId);
+                if (posting != null) {
+                    posting.remove(ordinal);
+                }
+            }
+        }
+        addKeywords(newFood, ordinal);
+    }
+
+    private void addKeywords(Food food, int ordinal) {
+        for (int termId : food.getKeywordIds()) {
+            CompressedBitmap posting = termPostings.get(termId);
+            if (posting == null) {
+                posting = new CompressedBitmap();
+                termPostings.put(termId, posting);
+                trigramIndex.add(termId);
+                fuzzyIndex.add(termId);
+            }
+            posting.add(ordinal);
+        }
+    }
+
+    // Position of the food in insertion order, or -1 if it is not indexed
+    public int ordinalOf(Food food) {
+        int ordinal = (food instanceof CompositeFood ? compositeOrdinals : basicOrdinals).get(food.getIdentifier());
+        return ordinal < 0 && base != null ? base.ordinalOf(food) : ordinal;
+    }
+
+    public Food foodAt(int ordinal) {
+        String identifier = identifierAt(ordinal);
+        if (isComposite(ordinal)) {
+            return foods.getCompositeFood(identifier);
+        }
+        return foods.getBasicFood(identifier);
+    }
+
+    String identifierAt(int ordinal) {
+        return ordinal < baseSize ? base.identifiers.get(ordinal) : identifiers.get(ordinal - baseSize);
+    }
+
+    boolean isComposite(int ordinal) {
+        return ordinal < baseSize ? base.compositeFoods.contains(ordinal) : compositeFoods.contains(ordinal);
+    }
+
+    // Number of ordinals handed out so far
+    public int size() {
+        return baseSize + identifiers.size();
+    }
+
+    public void clear() {
+        base = null;
+        baseSize = 0;
+        replacedOrdinals.clear();
+        identifiers.clear();
+        basicFoods.clear();
+        compositeFoods.clear();
+        termPostings.clear();
+        basicOrdinals.clear();
+        compositeOrdinals.clear();
+        trigramIndex.clear();
+        fuzzyIndex.clear();
+        nameWordPostings.clear();
+    }
+
+    // Case-insensitive substring match of each search keyword against food keywords
+    public List<Food> search(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type) {
+        return search(keywords, matchAll, type, Integer.MAX_VALUE);
+    }
+
+    // The first limit results of search
+    public List<Food> search(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type, int limit) {
+        return search(keywords, matchAll, type, this::substringMatches, limit);
+    }
+
+    // Case-insensitive match of each search keyword against whole food keywords
+    public List<Food> searchExact(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type) {
+        return search(keywords, matchAll, type, this::exactMatches, Integer.MAX_VALUE);
+    }
+
+    // Like search, but a search keyword also matches food keywords and words of food
+    // identifiers a few typos away from it (see maxEditsFor)
+    public List<Food> searchFuzzy(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type) {
+        return search(keywords, matchAll, type, term -> {
+            CompressedBitmap matches = substringMatches(term);
+            matches.orInPlace(fuzzyMatches(term));
+            return matches;
+        }, Integer.MAX_VALUE);
+    }
+
+    private List<Food> search(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type,
+            Function<String, CompressedBitmap> matcher, int limit) {
+        CompressedBitmap result = null;
+        for (String keyword : keywords) {
+            String term = KeywordDictionary.normalize(keyword);
+            CompressedBitmap matches = matcher.apply(term);
+            if (result == null) {
+                result = matches;
+            } else {
+                result = matchAll ? result.and(matches) : result.or(matches);
+            }
+            if (matchAll && result.isEmpty()) {
+                break;
+            }
+        }
+
+        // Basic foods are listed ahead of composites, each in insertion order. Looking
+        // the matches up is the costly part for large results (e.g. listing a whole
+        // catalog), so RangeScan spreads it over cores; foods past the limit are skipped.
+        CompressedBitmap allBasic = allBasicFoods();
+        CompressedBitmap allComposite = allCompositeFoods();
+        int[] basicMatches = type == FoodDatabase.FoodType.COMPOSITE ? new int[0]
+                : (result == null ? allBasic : result.and(allBasic)).toArray();
+        int[] compositeMatches = type == FoodDatabase.FoodType.BASIC ? new int[0]
+                : (result == null ? allComposite : result.and(allComposite)).toArray();
+        return RangeScan.map(basicMatches.length + compositeMatches.length, i -> i < basicMatches.length
+                ? foods.getBasicFood(identifierAt(basicMatches[i]))
+                : foods.getCompositeFood(identifierAt(compositeMatches[i - basicMatches.length])), limit);
+    }
+
+    // Receives each ranked match with its relevance
+    interface MatchConsumer {
+        void accept(int ordinal, double score);
+    }
+
+    // Relevance of a search keyword matching a whole food keyword, the start of one,
+    // or only some other part of one
+    static final double EXACT_MATCH_SCORE = 3;
+    static final double PREFIX_MATCH_SCORE = 2;
+    static final double SUBSTRING_MATCH_SCORE = 1;
+    static final double FUZZY_MATCH_SCORE = 0.5;
+
+    // Same matches as search, each scored by the sum over the search keywords it
+    // matches of the best way it matches them, so foods matching more keywords, and
+    // matching them more closely, rank higher. No keywords matches everything at 0.
+    // With fuzzy set, matches within a few typos count too, below any other match.
+    void rank(List<String> keywords, boolean matchAll, boolean fuzzy, FoodDatabase.FoodType type,
+            MatchConsumer consumer) {
+        int count = keywords.size();
+        CompressedBitmap[] exact = new CompressedBitmap[count];
+        CompressedBitmap[] prefix = new CompressedBitmap[count];
+        CompressedBitmap[] substring = new CompressedBitmap[count];
+        CompressedBitmap[] any = new CompressedBitmap[count];
+        CompressedBitmap result = null;
+        for (int i = 0; i < count; i++) {
+            String keyword = KeywordDictionary.normalize(keywords.get(i));
+            CompressedBitmap exactTerms = new CompressedBitmap();
+            CompressedBitmap prefixTerms = new CompressedBitmap();
+            CompressedBitmap terms = termsContaining(keyword);
+            terms.forEach(termId -> {
+                String term = KeywordDictionary.getInstance().term(termId);
+                if (term.equals(keyword)) {
+                    exactTerms.add(termId);
+                } else if (term.startsWith(keyword)) {
+                    prefixTerms.add(termId);
+                }
+            });
+            CompressedBitmap matches = postings(terms);
+            exact[i] = postings(exactTerms);
+            prefix[i] = postings(prefixTerms);
+            substring[i] = matches;
+            if (fuzzy) {
+                CompressedBitmap close = fuzzyMatches(keyword);
+                close.orInPlace(matches);
+                any[i] = close;
+            } else {
+                any[i] = matches;
+            }
+            if (result == null) {
+                result = any[i];
+            } else {
+                result = matchAll ? result.and(any[i]) : result.or(any[i]);
+            }
+            if (matchAll && result.isEmpty()) {
+                return;
+            }
+        }
+
+        CompressedBitmap candidates = type == FoodDatabase.FoodType.BASIC ? allBasicFoods()
+                : type == FoodDatabase.FoodType.COMPOSITE ? allCompositeFoods()
+                : allBasicFoods().or(allCompositeFoods());
+        CompressedBitmap matched = result == null ? candidates : result.and(candidates);
+        matched.forEach(ordinal -> {
+            double score = 0;
+            for (int i = 0; i < count; i++) {
+                if (exact[i].contains(ordinal)) {
+                    score += EXACT_MATCH_SCORE;
+                } else if (prefix[i].contains(ordinal)) {
+                    score += PREFIX_MATCH_SCORE;
+                } else if (substring[i].contains(ordinal)) {
+                    score += SUBSTRING_MATCH_SCORE;
+                } else if (any[i].contains(ordinal)) {
+                    score += FUZZY_MATCH_SCORE;
+                }
+            }
+            consumer.accept(ordinal, score);
+        });
+    }
+
+    private CompressedBitmap exactMatches(String term) {
+        CompressedBitmap terms = new CompressedBitmap();
+        int termId = KeywordDictionary.getInstance().lookup(term);
+        if (termId >= 0) {
+            terms.add(termId);
+        }
+        return postings(terms);
+    }
+
+    private CompressedBitmap substringMatches(String keyword) {
+        return postings(termsContaining(keyword));
+    }
+
+    // Foods with a keyword or identifier word within maxEditsFor(keyword) edits
+    private CompressedBitmap fuzzyMatches(String keyword) {
+        CompressedBitmap terms = fuzzyIndex.termsWithin(keyword, maxEditsFor(keyword));
+        if (base != null) {
+            terms.orInPlace(base.fuzzyIndex.termsWithin(keyword, maxEditsFor(keyword)));
+        }
+        CompressedBitmap matches = postings(terms);
+        terms.forEach(termId -> {
+            // Identifiers never change, so base postings of their words all still hold
+            orInto(matches, nameWordPostings.get(termId));
+            if (base != null) {
+                orInto(matches, base.nameWordPostings.get(termId));
+            }
+        });
+        return matches;
+    }
+
+    private CompressedBitmap termsContaining(String keyword) {
+        CompressedBitmap terms = trigramIndex.termsContaining(keyword);
+        if (base != null) {
+            terms.orInPlace(base.trigramIndex.termsContaining(keyword));
+        }
+        return terms;
+    }
+
+    // Foods currently carrying any of the terms: the base postings without the
+    // replaced foods, then this index's own
+    private CompressedBitmap postings(CompressedBitmap termIds) {
+        CompressedBitmap matches = new CompressedBitmap();
+        if (base != null) {
+            termIds.forEach(termId -> orInto(matches, base.termPostings.get(termId)));
+            removeAll(matches, replacedOrdinals);
+        }
+        termIds.forEach(termId -> orInto(matches, termPostings.get(termId)));
+        return matches;
+    }
+
+    private CompressedBitmap allBasicFoods() {
+        return base == null ? basicFoods : base.basicFoods.or(basicFoods);
+    }
+
+    private CompressedBitmap allCompositeFoods() {
+        return base == null ? compositeFoods : base.compositeFoods.or(compositeFoods);
+    }
+
+    private static void orInto(CompressedBitmap target, CompressedBitmap source) {
+        if (source != null) {
+            target.orInPlace(source);
+        }
+    }
+
+    private static void removeAll(CompressedBitmap target, CompressedBitmap values) {
+        target.and(values).forEach(target::remove);
+    }
+
+    // Typos tolerated in a search keyword: none for very short ones, which would
+    // otherwise match nearly everything, one up to five letters, then two
+    static int maxEditsFor(String keyword) {
+        if (keyword.length() <= 2) {
+            return 0;
+        }
+        return keyword.length() <= 5 ? 1 : 2;
+    }
+}
@@ -0,0 +1,437 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+// One version of the food database. FoodDatabase builds each version copy-on-write
+// and publishes it atomically; a published version is never modified again, so any
+// number of threads can read it without locking and always see a consistent set of
+// foods. Only the search index and compiled recipes are filled in on demand.
+//
+// A snapshot may be layered over a shared catalog (another database's snapshot):
+// it then holds only its own foods, which shadow catalog foods with the same
+// identifier and type, and every read merges the two layers.
+public class FoodSnapshot {
+    private final long version;
+    private final FoodSnapshot catalog;
+
+    // Keyed by identifier; insertion order is preserved for listing and search results.
+    // Shared with the previous version until the writer first changes them.
+    BasicFoodStore basicFoods;
+    Map<String, CompositeFood> compositeFoods;
+
+    // Reverse dependency graph: component identifier -> composites that use it directly.
+    // Sets are copied by the writer before it changes them, like the maps above.
+    Map<String, Set<String>> parentComposites;
+
+    // Built on first use, so a catalog served from disk is not read in full at startup
+    volatile FoodSearchIndex searchIndex;
+
+    // Composites compiled into basic-food vectors on first use; vectors refer to
+    // ordinals of the search index, so they are only carried over along with it
+    final Map<String, FoodVector> compiledComposites;
+
+    FoodSnapshot(BasicFoodStore basicFoods, FoodSnapshot catalog) {
+        if (catalog != null && catalog.catalog != null) {
+            throw new IllegalArgumentException("A catalog cannot itself be layered over another catalog.");
+        }
+        this.version = 0;
+        this.catalog = catalog;
+        this.basicFoods = basicFoods;
+        this.compositeFoods = new LinkedHashMap<>();
+        this.parentComposites = new HashMap<>();
+        this.compiledComposites = new ConcurrentHashMap<>();
+    }
+
+    // Next version, sharing everything with the previous one
+    FoodSnapshot(FoodSnapshot previous) {
+        this.version = previous.version + 1;
+        this.catalog = previous.catalog;
+        this.basicFoods = previous.basicFoods;
+        this.compositeFoods = previous.compositeFoods;
+        this.parentComposites = previous.parentComposites;
+        FoodSearchIndex index = previous.searchIndex;
+        this.searchIndex = index;
+        this.compiledComposites = index != null
+                ? new ConcurrentHashMap<>(previous.compiledComposites)
+                : new ConcurrentHashMap<>();
+    }
+
+    // Increases by one with every published batch of changes
+    public long getVersion() {
+        return version;
+    }
+
+    // The shared catalog under this layer, or null
+    public FoodSnapshot getCatalog() {
+        return catalog;
+    }
+
+    FoodSearchIndex searchIndex() {
+        FoodSearchIndex index = searchIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = searchIndex;
+                if (index == null) {
+                    index = new FoodSearchIndex(this);
+                    for (BasicFood food : basicFoods.getAll()) {
+                        index.add(food);
+                    }
+                    for (CompositeFood food : compositeFoods.values()) {
+                        index.add(food);
+                    }
+                    searchIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    // Flattens a composite into total servings of each basic food. Sub-composites are
+    // compiled once and reused, so shared and deeply nested recipes cost one pass.
+    public FoodVector compile(CompositeFood composite) {
+        FoodVector compiled = compiled(composite);
+        if (compiled != null) {
+            return compiled;
+        }
+
+        // Iterative depth-first walk: a composite is compiled once all its sub-composites are
+        Deque<CompositeFood> path = new ArrayDeque<>();
+        Deque<Iterator<CompositeFood.FoodServing>> pending = new ArrayDeque<>();
+        Set<String> onPath = new HashSet<>();
+        path.push(composite);
+        pending.push(composite.getComponents().iterator());
+        onPath.add(composite.getIdentifier());
+        while (!path.isEmpty()) {
+            Iterator<CompositeFood.FoodServing> components = pending.peek();
+            if (components.hasNext()) {
+                Food child = components.next().food;
+                if (child instanceof CompositeFood && compiled((CompositeFood) child) == null) {
+                    if (!onPath.add(child.getIdentifier())) {
+                        throw new IllegalStateException("Composite food contains itself: " + child.getIdentifier());
+                    }
+                    if (path.size() >= CompositeFood.getMaxDepth()) {
+                        throw new IllegalStateException("Recipe for " + composite.getIdentifier()
+                                + " is nested deeper than " + CompositeFood.getMaxDepth() + " levels.");
+                    }
+                    path.push((CompositeFood) child);
+                    pending.push(((CompositeFood) child).getComponents().iterator());
+                }
+                continue;
+            }
+
+            CompositeFood current = path.pop();
+            pending.pop();
+            onPath.remove(current.getIdentifier());
+            FoodVector.Builder builder = new FoodVector.Builder();
+            for (CompositeFood.FoodServing comp : current.getComponents()) {
+                if (comp.food instanceof CompositeFood) {
+                    builder.add(compiled((CompositeFood) comp.food), comp.servings);
+                } else {
+                    builder.add(basicFoodId(comp.food), comp.servings);
+                }
+            }
+            compiledComposites.put(current.getIdentifier(), builder.build());
+        }
+        return compiledComposites.get(composite.getIdentifier());
+    }
+
+    // Vector already compiled for this version; a catalog composite this layer does
+    // not shadow is compiled by (and cached in) the shared catalog
+    private FoodVector compiled(CompositeFood composite) {
+        FoodVector vector = compiledComposites.get(composite.getIdentifier());
+        if (vector == null && catalog != null && !compositeFoods.containsKey(composite.getIdentifier())
+                && catalog.compositeFoods.get(composite.getIdentifier()) == composite) {
+            vector = catalog.compile(composite);
+        }
+        return vector;
+    }
+
+    // Total servings of each basic food eaten in the log, with composites broken down
+    public FoodVector compile(DailyLog log) {
+        FoodVector.Builder builder = new FoodVector.Builder();
+        for (DailyLog.FoodEntry entry : log.getFoodEntries()) {
+            if (entry.getFood() instanceof CompositeFood) {
+                builder.add(compile((CompositeFood) entry.getFood()), entry.getServings());
+            } else {
+                builder.add(basicFoodId(entry.getFood()), entry.getServings());
+            }
+        }
+        return builder.build();
+    }
+
+    // Basic ingredients of a day's log with their total servings
+    public List<CompositeFood.FoodServing> getBasicIngredients(DailyLog log) {
+        FoodVector vector = compile(log);
+        List<CompositeFood.FoodServing> ingredients = new ArrayList<>(vector.size());
+        for (int i = 0; i < vector.size(); i++) {
+            ingredients.add(new CompositeFood.FoodServing(foodAt(vector.idAt(i)), vector.servingsAt(i)));
+        }
+        return ingredients;
+    }
+
+    public double calculateCalories(FoodVector vector) {
+        double calories = 0;
+        for (int i = 0; i < vector.size(); i++) {
+            calories += foodAt(vector.idAt(i)).getCaloriesPerServing() * vector.servingsAt(i);
+        }
+        return calories;
+    }
+
+    private int basicFoodId(Food food) {
+        int id = ordinalOf(food);
+        if (id < 0) {
+            throw new IllegalStateException("Food is not in the database: " + food.getIdentifier());
+        }
+        return id;
+    }
+
+    public List<Food> searchFoods(List<String> keywords, boolean matchAll) {
+        return searchFoods(keywords, matchAll, FoodDatabase.FoodType.ALL);
+    }
+
+    // Keyword matching is case-insensitive substring matching against each food keyword
+    public List<Food> searchFoods(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type) {
+        List<Food> found = searchIndex().search(keywords, matchAll, type);
+        return catalog == null ? found : merge(catalog.searchFoods(keywords, matchAll, type), found);
+    }
+
+    // The first limit results of searchFoods, without looking up the rest
+    public List<Food> searchFoods(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type, int limit) {
+        if (catalog == null) {
+            return searchIndex().search(keywords, matchAll, type, limit);
+        }
+        // This layer's results are needed in full to replace the catalog foods they
+        // shadow, and merging drops at most one catalog result per food of this layer
+        List<Food> found = searchIndex().search(keywords, matchAll, type);
+        int catalogLimit = (int) Math.min(Integer.MAX_VALUE, (long) limit + searchIndex().size());
+        List<Food> merged = merge(catalog.searchFoods(keywords, matchAll, type, catalogLimit), found);
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    // Like searchFoods, but each search keyword must equal a whole food keyword
+    public List<Food> searchFoodsByExactKeywords(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type) {
+        List<Food> found = searchIndex().searchExact(keywords, matchAll, type);
+        return catalog == null ? found : merge(catalog.searchFoodsByExactKeywords(keywords, matchAll, type), found);
+    }
+
+    // Like searchFoods, but tolerating a few typos per search keyword, also against
+    // the words of food identifiers
+    public List<Food> searchFoodsFuzzy(List<String> keywords, boolean matchAll, FoodDatabase.FoodType type) {
+        List<Food> found = searchIndex().searchFuzzy(keywords, matchAll, type);
+        return catalog == null ? found : merge(catalog.searchFoodsFuzzy(keywords, matchAll, type), found);
+    }
+
+    // One page of matches, best first: keyword relevance (see FoodSearchIndex.rank)
+    // plus a bonus growing with the number of days the food was logged, if usage is
+    // given. A cursor only continues a ranking of this version (see SearchPage.Cursor).
+    public SearchPage searchRanked(List<String> keywords, boolean matchAll, boolean fuzzy, FoodDatabase.FoodType type,
+            int pageSize, SearchPage.Cursor after, ToIntFunction<String> usage) {
+        SearchPage.Collector collector = new SearchPage.Collector(this, pageSize, after);
+        int offset = 0;
+        if (catalog != null) {
+            // Foods this layer shadows are ranked by its own version instead
+            FoodSearchIndex catalogIndex = catalog.searchIndex();
+            catalogIndex.rank(keywords, matchAll, fuzzy, type, (ordinal, score) -> {
+                String identifier = catalogIndex.identifierAt(ordinal);
+                boolean shadowed = catalogIndex.isComposite(ordinal)
+                        ? compositeFoods.containsKey(identifier)
+                        : basicFoods.contains(identifier);
+                if (!shadowed) {
+                    collector.offer(score + usageScore(usage, identifier), ordinal);
+                }
+            });
+            offset = catalogIndex.size();
+        }
+        FoodSearchIndex index = searchIndex();
+        int first = offset;
+        index.rank(keywords, matchAll, fuzzy, type, (ordinal, score) ->
+                collector.offer(score + usageScore(usage, index.identifierAt(ordinal)), first + ordinal));
+        return collector.toPage(this::foodAt);
+    }
+
+    // Diminishing returns, so a staple does not bury closer keyword matches
+    private static double usageScore(ToIntFunction<String> usage, String identifier) {
+        return usage == null ? 0 : Math.log1p(usage.applyAsInt(identifier));
+    }
+
+    // Catalog results with this layer's version in place of each food it shadows
+    // (left out if that version does not match), then this layer's other results;
+    // basic foods first, as in a single layer
+    private List<Food> merge(List<Food> catalogFound, List<Food> found) {
+        List<Food> merged = new ArrayList<>(catalogFound.size() + found.size());
+        for (boolean composites : new boolean[] { false, true }) {
+            Map<String, Food> own = new LinkedHashMap<>();
+            for (Food food : found) {
+                if ((food instanceof CompositeFood) == composites) {
+                    own.put(food.getIdentifier(), food);
+                }
+            }
+            for (Food food : catalogFound) {
+                if ((food instanceof CompositeFood) != composites) {
+                    continue;
+                }
+                if (!shadows(food)) {
+                    merged.add(food);
+                } else if (own.containsKey(food.getIdentifier())) {
+                    merged.add(own.remove(food.getIdentifier()));
+                }
+            }
+            merged.addAll(own.values());
+        }
+        return merged;
+    }
+
+    // Whether this layer has its own version of the catalog food
+    private boolean shadows(Food food) {
+        return food instanceof CompositeFood
+                ? compositeFoods.containsKey(food.getIdentifier())
+                : basicFoods.contains(food.getIdentifier());
+    }
+
+    // Ordinals of a layered snapshot continue after the catalog's, so compiled
+    // catalog recipes are valid in both
+    private int ordinalOf(Food food) {
+        int ordinal = searchIndex().ordinalOf(food);
+        if (catalog == null) {
+            return ordinal;
+        }
+        return ordinal >= 0 ? catalog.searchIndex().size() + ordinal : catalog.searchIndex().ordinalOf(food);
+    }
+
+    private Food foodAt(int ordinal) {
+        if (catalog == null) {
+            return searchIndex().foodAt(ordinal);
+        }
+        int catalogSize = catalog.searchIndex().size();
+        return ordinal < catalogSize ? catalog.searchIndex().foodAt(ordinal) : searchIndex().foodAt(ordinal - catalogSize);
+    }
+
+    // Identifiers of the composites using the food directly: this layer's own, plus
+    // those of the catalog that this layer has not replaced with its own version
+    Collection<String> parentIdsOf(String identifier) {
+        Set<String> parents = parentComposites.getOrDefault(identifier, Collections.emptySet());
+        if (catalog == null) {
+            return parents;
+        }
+        List<String> merged = new ArrayList<>(parents);
+        for (String parentId : catalog.parentIdsOf(identifier)) {
+            if (!compositeFoods.containsKey(parentId)) {
+                merged.add(parentId);
+            }
+        }
+        return merged;
+    }
+
+    // Composites that use the food as a direct component, e.g. for a "used in" view
+    public List<CompositeFood> getParentComposites(String identifier) {
+        List<CompositeFood> parents = new ArrayList<>();
+        for (String parentId : parentIdsOf(identifier)) {
+            CompositeFood parent = getCompositeFood(parentId);
+            if (parent != null) {
+                parents.add(parent);
+            }
+        }
+        return parents;
+    }
+
+    // Every composite containing the food, directly or through other composites:
+    // what a change to the food would affect
+    public List<CompositeFood> getCompositesContaining(String identifier) {
+        List<CompositeFood> containing = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(parentIdsOf(identifier));
+        while (!pending.isEmpty()) {
+            String current = pending.poll();
+            if (!visited.add(current)) {
+                continue;
+            }
+            CompositeFood composite = getCompositeFood(current);
+            if (composite != null) {
+                containing.add(composite);
+            }
+            pending.addAll(parentIdsOf(current));
+        }
+        return containing;
+    }
+
+    public List<BasicFood> getBasicFoods() {
+        if (catalog == null) {
+            return basicFoods.getAll();
+        }
+        List<BasicFood> foods = new ArrayList<>();
+        for (BasicFood food : catalog.getBasicFoods()) {
+            BasicFood own = basicFoods.get(food.getIdentifier());
+            foods.add(own != null ? own : food);
+        }
+        for (BasicFood food : basicFoods.getAll()) {
+            if (!catalog.basicFoods.contains(food.getIdentifier())) {
+                foods.add(food);
+            }
+        }
+        return foods;
+    }
+
+    public List<CompositeFood> getCompositeFoods() {
+        if (catalog == null) {
+            return new ArrayList<>(compositeFoods.values());
+        }
+        List<CompositeFood> foods = new ArrayList<>();
+        for (CompositeFood food : catalog.compositeFoods.values()) {
+            CompositeFood own = compositeFoods.get(food.getIdentifier());
+            foods.add(own != null ? own : food);
+        }
+        for (CompositeFood food : compositeFoods.values()) {
+            if (!catalog.compositeFoods.containsKey(food.getIdentifier())) {
+                foods.add(food);
+            }
+        }
+        return foods;
+    }
+
+    public List<Food> getAllFoods() {
+        List<Food> allFoods = new ArrayList<>();
+        allFoods.addAll(getBasicFoods());
+        allFoods.addAll(getCompositeFoods());
+        return allFoods;
+    }
+
+    public BasicFood getBasicFood(String identifier) {
+        BasicFood food = basicFoods.get(identifier);
+        return food != null || catalog == null ? food : catalog.getBasicFood(identifier);
+    }
+
+    public CompositeFood getCompositeFood(String identifier) {
+        CompositeFood food = compositeFoods.get(identifier);
+        return food != null || catalog == null ? food : catalog.getCompositeFood(identifier);
+    }
+
+    boolean containsBasicFood(String identifier) {
+        return basicFoods.contains(identifier) || (catalog != null && catalog.basicFoods.contains(identifier));
+    }
+
+    boolean containsCompositeFood(String identifier) {
+        return compositeFoods.containsKey(identifier) || (catalog != null && catalog.compositeFoods.containsKey(identifier));
+    }
+
+    // Basic foods take precedence, as before
+    public Food findFoodByIdentifier(String identifier) {
+        Food food = getBasicFood(identifier);
+        if (food != null) {
+            return food;
+        }
+        return getCompositeFood(identifier);
+    }
+}
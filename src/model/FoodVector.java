@@ -0,0 +1,89 @@
+package model;
+
+import java.util.Arrays;
+
+// Sparse vector of basic food ids (search index ordinals) to total servings, sorted
+// by id. A composite compiled into one of these can be evaluated in a single
+// linear pass, however deeply its recipe is nested.
+public class FoodVector {
+    private static final FoodVector EMPTY = new FoodVector(new int[0], new double[0]);
+
+    private final int[] ids;
+    private final double[] servings;
+
+    private FoodVector(int[] ids, double[] servings) {
+        this.ids = ids;
+        this.servings = servings;
+    }
+
+    public static FoodVector empty() {
+        return EMPTY;
+    }
+
+    public static FoodVector of(int id, double servings) {
+        return new FoodVector(new int[] { id }, new double[] { servings });
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int idAt(int index) {
+        return ids[index];
+    }
+
+    public double servingsAt(int index) {
+        return servings[index];
+    }
+
+    // Accumulates scaled vectors and merges entries with the same id on build()
+    public static class Builder {
+        private int[] ids = new int[8];
+        private double[] servings = new double[8];
+        private int size;
+
+        public Builder add(FoodVector vector, double scale) {
+            for (int i = 0; i < vector.ids.length; i++) {
+                add(vector.ids[i], vector.servings[i] * scale);
+            }
+            return this;
+        }
+
+        public Builder add(int id, double amount) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                servings = Arrays.copyOf(servings, size * 2);
+            }
+            ids[size] = id;
+            servings[size] = amount;
+            size++;
+            return this;
+        }
+
+        public FoodVector build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            // Sort entry positions by id, then fold runs of equal ids together
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(ids[a], ids[b]));
+
+            int[] mergedIds = new int[size];
+            double[] mergedServings = new double[size];
+            int n = 0;
+            for (int position : order) {
+                if (n > 0 && mergedIds[n - 1] == ids[position]) {
+                    mergedServings[n - 1] += servings[position];
+                } else {
+                    mergedIds[n] = ids[position];
+                    mergedServings[n] = servings[position];
+                    n++;
+                }
+            }
+            return new FoodVector(Arrays.copyOf(mergedIds, n), Arrays.copyOf(mergedServings, n));
+        }
+    }
+}
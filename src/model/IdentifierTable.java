@@ -0,0 +1,83 @@
+package model;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+// Open-addressing hash table from identifiers to non-negative ints. Keys are not
+// stored: each slot holds only the value, and the owner supplies the identifier
+// for a value, so the table costs a few bytes per entry instead of a map entry.
+public class IdentifierTable {
+    private final IntFunction<String> keyOf;
+    private int[] slots = new int[16]; // value + 1, or 0 for an empty slot
+    private int size;
+
+    public IdentifierTable(IntFunction<String> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    // Value stored for the identifier, or -1
+    public int get(String identifier) {
+        int mask = slots.length - 1;
+        for (int i = hash(identifier) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (keyOf.apply(slots[i] - 1).equals(identifier)) {
+                return slots[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    // Maps the identifier (which must currently be keyOf(value)) to value
+    public void put(String identifier, int value) {
+        if ((size + 1) * 2 > slots.length) {
+            resize();
+        }
+        int mask = slots.length - 1;
+        int i = hash(identifier) & mask;
+        while (slots[i] != 0) {
+            if (keyOf.apply(slots[i] - 1).equals(identifier)) {
+                slots[i] = value + 1;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value + 1;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    // Same entries, with keys supplied by the copy's owner
+    public IdentifierTable copy(IntFunction<String> keyOf) {
+        IdentifierTable copy = new IdentifierTable(keyOf);
+        copy.slots = slots.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    private void resize() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        int mask = slots.length - 1;
+        for (int slot : old) {
+            if (slot != 0) {
+                int i = hash(keyOf.apply(slot - 1)) & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = slot;
+            }
+        }
+    }
+
+    private static int hash(String identifier) {
+        int h = identifier.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,70 @@
+package model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Shared dictionary of case-folded keywords. Every distinct keyword gets one
+// canonical String and a dense int id, so foods can store their keywords as ids
+// and searches can compare ids instead of re-lowercasing strings.
+public class KeywordDictionary {
+    private static final KeywordDictionary instance = new KeywordDictionary();
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] terms = new String[64];
+    private int size;
+
+    public static KeywordDictionary getInstance() {
+        return instance;
+    }
+
+    public static String normalize(String keyword) {
+        return keyword.toLowerCase(Locale.ROOT);
+    }
+
+    // Returns the id of the case-folded keyword, adding it if it is new
+    public int intern(String keyword) {
+        String term = normalize(keyword);
+        Integer id = ids.get(term);
+        return id != null ? id : add(term);
+    }
+
+    public int[] internAll(List<String> keywords) {
+        int[] keywordIds = new int[keywords.size()];
+        for (int i = 0; i < keywordIds.length; i++) {
+            keywordIds[i] = intern(keywords.get(i));
+        }
+        return keywordIds;
+    }
+
+    // Id of the case-folded keyword, or -1 if no food has ever used it
+    public int lookup(String keyword) {
+        Integer id = ids.get(normalize(keyword));
+        return id != null ? id : -1;
+    }
+
+    public String term(int id) {
+        return terms[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized int add(String term) {
+        Integer existing = ids.get(term);
+        if (existing != null) {
+            return existing; // Added by another thread in the meantime
+        }
+        String[] current = terms;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = term;
+        terms = current; // Publish the term before its id becomes visible
+        ids.put(term, size);
+        return size++;
+    }
+}
@@ -0,0 +1,96 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Basic food store of a new FoodDatabase version that shares the previous version's
+// store instead of copying it: foods added or replaced since are kept apart and read
+// first. Copying it copies only those changes while they stay within about the
+// square root of the shared store's size; past that the copy is a merged store of
+// the shared store's type, so a single change costs O(sqrt n) amortized.
+public class LayeredBasicFoodStore implements BasicFoodStore {
+    private static final int MIN_OVERLAY_SIZE = 256;
+
+    private BasicFoodStore base; // never changed through this store
+    private final ObjectBasicFoodStore changes;
+    private int added; // changed foods that are not in the base
+
+    private LayeredBasicFoodStore(BasicFoodStore base, ObjectBasicFoodStore changes, int added) {
+        this.base = base;
+        this.changes = changes;
+        this.added = added;
+    }
+
+    // Store for the next version over the given, published one
+    public static BasicFoodStore over(BasicFoodStore store) {
+        if (store instanceof LayeredBasicFoodStore) {
+            return store.copy();
+        }
+        return new LayeredBasicFoodStore(store, new ObjectBasicFoodStore(), 0);
+    }
+
+    @Override
+    public void add(BasicFood food) {
+        replace(food);
+    }
+
+    @Override
+    public void replace(BasicFood food) {
+        if (!changes.contains(food.getIdentifier()) && !base.contains(food.getIdentifier())) {
+            added++;
+        }
+        changes.replace(food);
+    }
+
+    @Override
+    public BasicFood get(String identifier) {
+        BasicFood food = changes.get(identifier);
+        return food != null ? food : base.get(identifier);
+    }
+
+    @Override
+    public boolean contains(String identifier) {
+        return changes.contains(identifier) || base.contains(identifier);
+    }
+
+    // Replaced foods keep their place in the base order, added ones follow it
+    @Override
+    public List<BasicFood> getAll() {
+        List<BasicFood> foods = new ArrayList<>(size());
+        for (BasicFood food : base.getAll()) {
+            BasicFood replaced = changes.get(food.getIdentifier());
+            foods.add(replaced != null ? replaced : food);
+        }
+        for (BasicFood food : changes.getAll()) {
+            if (!base.contains(food.getIdentifier())) {
+                foods.add(food);
+            }
+        }
+        return foods;
+    }
+
+    @Override
+    public int size() {
+        return base.size() + added;
+    }
+
+    @Override
+    public void clear() {
+        base = base.copy();
+        base.clear();
+        changes.clear();
+        added = 0;
+    }
+
+    @Override
+    public BasicFoodStore copy() {
+        if (changes.size() <= Math.max(MIN_OVERLAY_SIZE, (int) Math.sqrt(base.size()))) {
+            return new LayeredBasicFoodStore(base, changes.copy(), added);
+        }
+        BasicFoodStore merged = base.copy();
+        for (BasicFood food : changes.getAll()) {
+            merged.replace(food);
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,53 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps each basic food as the object it was added as
+public class ObjectBasicFoodStore implements BasicFoodStore {
+    private final Map<String, BasicFood> foods = new LinkedHashMap<>();
+
+    @Override
+    public void add(BasicFood food) {
+        foods.put(food.getIdentifier(), food);
+    }
+
+    @Override
+    public void replace(BasicFood food) {
+        foods.put(food.getIdentifier(), food);
+    }
+
+    @Override
+    public BasicFood get(String identifier) {
+        return foods.get(identifier);
+    }
+
+    @Override
+    public boolean contains(String identifier) {
+        return foods.containsKey(identifier);
+    }
+
+    @Override
+    public List<BasicFood> getAll() {
+        return new ArrayList<>(foods.values());
+    }
+
+    @Override
+    public int size() {
+        return foods.size();
+    }
+
+    @Override
+    public void clear() {
+        foods.clear();
+    }
+
+    @Override
+    public ObjectBasicFoodStore copy() {
+        ObjectBasicFoodStore copy = new ObjectBasicFoodStore();
+        copy.foods.putAll(foods);
+        return copy;
+    }
+}
@@ -0,0 +1,88 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+// Maps positions 0..count-1 to results in order, e.g. search matches to foods. Small
+// scans run on the calling thread; large ones are split into ranges on a ForkJoin pool.
+// Every range builds its own list and lists are concatenated left to right, so the
+// order is the sequential one and no state is shared between ranges.
+//
+// -Dyada.parallelScanThreshold sets the smallest scan run in parallel (default 20000)
+// and -Dyada.scanParallelism the number of worker threads (default: one per core;
+// 1 keeps every scan sequential).
+final class RangeScan {
+    static final int THRESHOLD = Integer.getInteger("yada.parallelScanThreshold", 20000);
+    static final int PARALLELISM = Integer.getInteger("yada.scanParallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    private static volatile ForkJoinPool pool;
+
+    private RangeScan() {
+    }
+
+    // The first limit results (all of them for Integer.MAX_VALUE)
+    static <T> List<T> map(int count, IntFunction<T> function, int limit) {
+        int wanted = Math.min(count, limit);
+        if (wanted < THRESHOLD || PARALLELISM <= 1) {
+            List<T> results = new ArrayList<>(wanted);
+            for (int i = 0; i < wanted; i++) {
+                results.add(function.apply(i));
+            }
+            return results;
+        }
+        // Ranges past the limit are never scanned; a few per worker balance the load
+        int grain = Math.max(1024, wanted / (PARALLELISM * 4));
+        return pool().invoke(new RangeTask<>(function, 0, wanted, grain));
+    }
+
+    private static ForkJoinPool pool() {
+        ForkJoinPool current = pool;
+        if (current == null) {
+            synchronized (RangeScan.class) {
+                current = pool;
+                if (current == null) {
+                    current = new ForkJoinPool(PARALLELISM);
+                    pool = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static class RangeTask<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final IntFunction<T> function;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeTask(IntFunction<T> function, int from, int to, int grain) {
+            this.function = function;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (to - from <= grain) {
+                List<T> results = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    results.add(function.apply(i));
+                }
+                return results;
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask<T> right = new RangeTask<>(function, middle, to, grain);
+            right.fork();
+            List<T> results = new RangeTask<>(function, from, middle, grain).compute();
+            results.addAll(right.join());
+            return results;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+// One page of ranked search results, best first. Results are ordered by score,
+// then by insertion order; the cursor marks the last result of the page so the
+// next page can be requested without materializing anything before it.
+public class SearchPage {
+    private final List<Food> foods;
+    private final double[] scores;
+    private final int totalMatches;
+    private final Cursor nextCursor;
+
+    private SearchPage(List<Food> foods, double[] scores, int totalMatches, Cursor nextCursor) {
+        this.foods = foods;
+        this.scores = scores;
+        this.totalMatches = totalMatches;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Food> getFoods() {
+        return foods;
+    }
+
+    // Relevance of the food at this position of the page
+    public double getScore(int index) {
+        return scores[index];
+    }
+
+    // Number of matches on all pages
+    public int getTotalMatches() {
+        return totalMatches;
+    }
+
+    // Position after this page, or null if this is the last page
+    public Cursor getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    // Opaque position in a ranking: the score and ordinal of the last result returned,
+    // and the version they were ranked in. Later pages are ranked in that version, so
+    // changes published in between neither skip nor repeat results (the version is
+    // kept in memory as long as the cursor). Usage counts are still read live, so a
+    // food logged between pages can move across the page boundary.
+    public static class Cursor {
+        private final FoodSnapshot snapshot;
+        private final double score;
+        private final int ordinal;
+
+        private Cursor(FoodSnapshot snapshot, double score, int ordinal) {
+            this.snapshot = snapshot;
+            this.score = score;
+            this.ordinal = ordinal;
+        }
+
+        FoodSnapshot getSnapshot() {
+            return snapshot;
+        }
+    }
+
+    // Keeps the best pageSize matches ranked after the cursor in a bounded heap, so a
+    // page costs O(matches * log pageSize) time and O(pageSize) memory
+    static class Collector {
+        private final FoodSnapshot snapshot;
+        private final int pageSize;
+        private final Cursor after;
+        // Min-heap with the worst kept match at the root
+        private final double[] heapScores;
+        private final int[] heapOrdinals;
+        private int size;
+        private int totalMatches;
+        private int remainingMatches;
+
+        Collector(FoodSnapshot snapshot, int pageSize, Cursor after) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("Page size must be at least 1.");
+            }
+            if (after != null && after.snapshot != snapshot) {
+                throw new IllegalArgumentException("The cursor belongs to another version of the database.");
+            }
+            this.snapshot = snapshot;
+            this.pageSize = pageSize;
+            this.after = after;
+            this.heapScores = new double[pageSize];
+            this.heapOrdinals = new int[pageSize];
+        }
+
+        void offer(double score, int ordinal) {
+            totalMatches++;
+            if (after != null && !ranksBefore(after.score, after.ordinal, score, ordinal)) {
+                return;
+            }
+            remainingMatches++;
+            if (size < pageSize) {
+                heapScores[size] = score;
+                heapOrdinals[size] = ordinal;
+                siftUp(size++);
+            } else if (ranksBefore(score, ordinal, heapScores[0], heapOrdinals[0])) {
+                heapScores[0] = score;
+                heapOrdinals[0] = ordinal;
+                siftDown(0);
+            }
+        }
+
+        SearchPage toPage(IntFunction<Food> foodAt) {
+            // Popping the min-heap yields the kept matches worst first
+            int count = size;
+            double[] scores = new double[count];
+            int[] ordinals = new int[count];
+            for (int i = count - 1; i >= 0; i--) {
+                scores[i] = heapScores[0];
+                ordinals[i] = heapOrdinals[0];
+                size--;
+                heapScores[0] = heapScores[size];
+                heapOrdinals[0] = heapOrdinals[size];
+                siftDown(0);
+            }
+            List<Food> foods = new ArrayList<>(count);
+            for (int ordinal : ordinals) {
+                foods.add(foodAt.apply(ordinal));
+            }
+            Cursor next = remainingMatches > count ? new Cursor(snapshot, scores[count - 1], ordinals[count - 1]) : null;
+            return new SearchPage(Collections.unmodifiableList(foods), scores, totalMatches, next);
+        }
+
+        // Higher scores first; ties in insertion order
+        private static boolean ranksBefore(double score, int ordinal, double otherScore, int otherOrdinal) {
+            return score > otherScore || (score == otherScore && ordinal < otherOrdinal);
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (!ranksBefore(heapScores[parent], heapOrdinals[parent], heapScores[index], heapOrdinals[index])) {
+                    return;
+                }
+                swap(parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int worst = index;
+                for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                    if (ranksBefore(heapScores[worst], heapOrdinals[worst], heapScores[child], heapOrdinals[child])) {
+                        worst = child;
+                    }
+                }
+                if (worst == index) {
+                    return;
+                }
+                swap(index, worst);
+                index = worst;
+            }
+        }
+
+        private void swap(int i, int j) {
+            double score = heapScores[i];
+            heapScores[i] = heapScores[j];
+            heapScores[j] = score;
+            int ordinal = heapOrdinals[i];
+            heapOrdinals[i] = heapOrdinals[j];
+            heapOrdinals[j] = ordinal;
+        }
+    }
+}
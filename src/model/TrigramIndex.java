@@ -0,0 +1,79 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Inverted index from trigrams to the KeywordDictionary terms containing them,
+// used to narrow substring searches down to a candidate set before checking the
+// exact contains() match.
+public class TrigramIndex {
+    private final KeywordDictionary dictionary = KeywordDictionary.getInstance();
+    private final CompressedBitmap terms = new CompressedBitmap();
+    private final Map<Long, CompressedBitmap> postings = new HashMap<>();
+
+    // Adds a dictionary term; each term only needs to be added once
+    public void add(int termId) {
+        String term = dictionary.term(termId);
+        terms.add(termId);
+        for (int j = 0; j + 3 <= term.length(); j++) {
+            postings.computeIfAbsent(trigram(term, j), k -> new CompressedBitmap()).add(termId);
+        }
+    }
+
+    public void clear() {
+        terms.clear();
+        postings.clear();
+    }
+
+    public TrigramIndex copy() {
+        TrigramIndex copy = new TrigramIndex();
+        copy.terms.orInPlace(terms);
+        for (Map.Entry<Long, CompressedBitmap> entry : postings.entrySet()) {
+            copy.postings.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    // Ids of the indexed terms that contain the given case-folded text
+    public CompressedBitmap termsContaining(String keyword) {
+        CompressedBitmap matches = new CompressedBitmap();
+        CompressedBitmap candidates = candidatesFor(keyword);
+        (candidates == null ? terms : candidates).forEach(termId -> {
+            if (dictionary.term(termId).contains(keyword)) {
+                matches.add(termId);
+            }
+        });
+        return matches;
+    }
+
+    // Terms holding every trigram of the keyword, or null when the keyword is
+    // too short to have trigrams and every term has to be checked
+    private CompressedBitmap candidatesFor(String keyword) {
+        if (keyword.length() < 3) {
+            return null;
+        }
+        List<CompressedBitmap> lists = new ArrayList<>();
+        for (int j = 0; j + 3 <= keyword.length(); j++) {
+            CompressedBitmap list = postings.get(trigram(keyword, j));
+            if (list == null) {
+                return new CompressedBitmap();
+            }
+            if (!lists.contains(list)) {
+                lists.add(list);
+            }
+        }
+        // Start from the rarest trigram so intermediate results stay small
+        lists.sort((a, b) -> Integer.compare(a.cardinality(), b.cardinality()));
+        CompressedBitmap candidates = lists.get(0);
+        for (int i = 1; i < lists.size() && !candidates.isEmpty(); i++) {
+            candidates = candidates.and(lists.get(i));
+        }
+        return candidates;
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+}
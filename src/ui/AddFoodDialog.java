@@ -2,6 +2,7 @@ package ui;
 
 import model.BasicFood;
 import model.CompositeFood;
+import model.DuplicateDetector;
 import model.Food;
 import model.FoodDatabase;
 
@@ -10,21 +11,31 @@ import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.text.DecimalFormat;
 import javax.swing.text.NumberFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class AddFoodDialog extends JDialog {
     private FoodDatabase foodDatabase;
+    private DuplicateDetector duplicateDetector;
     private JTextField identifierField;
     private JTextField keywordsField;
     private JTextField caloriesField; // Restored calories field for basic foods
     private JTable componentTable;
     private DefaultTableModel componentTableModel;
+    private JTextField componentSearchField;
+    // Only the first matches are listed, so a large catalog is never listed in full
+    private static final int COMPONENT_LIMIT = 500;
     private boolean isBasicFood;
 
-    public AddFoodDialog(JFrame parent, FoodDatabase foodDatabase, boolean isBasicFood) {
+    public AddFoodDialog(JFrame parent, FoodDatabase foodDatabase, DuplicateDetector duplicateDetector,
+            boolean isBasicFood) {
         super(parent, isBasicFood ? "Add Basic Food" : "Add Composite Food", true);
         this.foodDatabase = foodDatabase;
+        this.duplicateDetector = duplicateDetector;
         this.isBasicFood = isBasicFood;
 
         setSize(700, 500);
@@ -96,23 +107,19 @@ public class AddFoodDialog extends JDialog {
         formatter.setAllowsInvalid(false);
         formatter.setMinimum(1); // Minimum 1 serving
 
-        // Populate table with available foods
-        foodDatabase.getBasicFoods()
-                .forEach(food -> componentTableModel.addRow(new Object[] {
-                        Boolean.FALSE,
-                        food.getIdentifier(),
-                        String.format("%.2f", food.getCaloriesPerServing()),
-                        "1" // Now as String
-                }));
-        foodDatabase.getCompositeFoods()
-                .forEach(food -> componentTableModel.addRow(new Object[] {
-                        Boolean.FALSE,
-                        food.getIdentifier(),
-                        String.format("%.2f", food.getCaloriesPerServing()),
-                        "1" // Now as String
-                }));
+        // Filter for the available foods
+        JPanel filterPanel = new JPanel(new FlowLayout());
+        componentSearchField = new JTextField(20);
+        filterPanel.add(new JLabel("Find Foods (comma-separated keywords):"));
+        filterPanel.add(componentSearchField);
+        JButton findButton = new JButton("Find");
+        findButton.addActionListener(e -> showComponents());
+        filterPanel.add(findButton);
+        panel.add(filterPanel, BorderLayout.NORTH);
 
+        // Populate table with available foods
         componentTable = new JTable(componentTableModel);
+        showComponents();
 
         // Set custom editor for servings column
         JFormattedTextField servingsField = new JFormattedTextField(formatter);
@@ -126,6 +133,40 @@ public class AddFoodDialog extends JDialog {
         return panel;
     }
 
+    // Lists the first foods matching the filter keywords (all foods without any),
+    // keeping the rows already selected
+    private void showComponents() {
+        List<String> keywords = new ArrayList<>();
+        String searchText = componentSearchField.getText().trim();
+        if (!searchText.isEmpty()) {
+            for (String keyword : searchText.split(",")) {
+                keywords.add(keyword.trim());
+            }
+        }
+
+        if (componentTable.isEditing()) {
+            componentTable.getCellEditor().stopCellEditing();
+        }
+        Set<String> selected = new HashSet<>();
+        for (int row = componentTableModel.getRowCount() - 1; row >= 0; row--) {
+            if (Boolean.TRUE.equals(componentTableModel.getValueAt(row, 0))) {
+                selected.add((String) componentTableModel.getValueAt(row, 1));
+            } else {
+                componentTableModel.removeRow(row);
+            }
+        }
+        for (Food food : foodDatabase.searchFoods(keywords, true, FoodDatabase.FoodType.ALL, COMPONENT_LIMIT)) {
+            if (!selected.contains(food.getIdentifier())) {
+                componentTableModel.addRow(new Object[] {
+                        Boolean.FALSE,
+                        food.getIdentifier(),
+                        String.format("%.2f", food.getCaloriesPerServing()),
+                        "1" // Now as String
+                });
+            }
+        }
+    }
+
     
     
     private JPanel createButtonPanel() {
@@ -158,6 +199,9 @@ public class AddFoodDialog extends JDialog {
                                 .map(String::trim)
                                 .collect(Collectors.toList()),
                         Double.parseDouble(caloriesField.getText().trim()));
+                if (!confirmNoDuplicates(basicFood)) {
+                    return;
+                }
                 foodDatabase.addBasicFood(basicFood);
             } else {
                 // Create and add Composite Food
@@ -200,6 +244,9 @@ public class AddFoodDialog extends JDialog {
                     }
                 }
 
+                if (!confirmNoDuplicates(compositeFood)) {
+                    return;
+                }
                 foodDatabase.addCompositeFood(compositeFood);
             }
 
@@ -219,19 +266,32 @@ public class AddFoodDialog extends JDialog {
     }
     
 
-    private Food findFoodByIdentifier(String identifier) {
-        // Search in basic and composite foods
-        for (Food food : foodDatabase.getBasicFoods()) {
-            if (food.getIdentifier().equals(identifier)) {
-                return food;
-            }
+    // Warns about similar foods already in the database; false if the user backs out
+    private boolean confirmNoDuplicates(Food food) {
+        if (duplicateDetector == null) {
+            return true;
         }
-        for (Food food : foodDatabase.getCompositeFoods()) {
-            if (food.getIdentifier().equals(identifier)) {
-                return food;
-            }
+        List<DuplicateDetector.Candidate> candidates = duplicateDetector.findCandidates(food);
+        if (candidates.isEmpty()) {
+            return true;
         }
-        return null;
+        StringBuilder message = new StringBuilder("Similar foods already exist:\n");
+        for (DuplicateDetector.Candidate candidate : candidates.subList(0, Math.min(5, candidates.size()))) {
+            message.append("  ").append(candidate.getDuplicateOf().getIdentifier())
+                    .append(String.format(" (%.0f%% similar)", candidate.getSimilarity() * 100)).append("\n");
+        }
+        message.append("Add ").append(food.getIdentifier()).append(" anyway?");
+        int response = JOptionPane.showConfirmDialog(this,
+                message.toString(),
+                "Possible Duplicate",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE);
+        return response == JOptionPane.YES_OPTION;
+    }
+
+    private Food findFoodByIdentifier(String identifier) {
+        // Delegate to the database's identifier index
+        return foodDatabase.findFoodByIdentifier(identifier);
     }
 
     private boolean validateInputs() {
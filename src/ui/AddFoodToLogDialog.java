@@ -17,6 +17,14 @@ public class AddFoodToLogDialog extends JDialog {
     private JTextField servingsField;
     private JTextField searchField;
     private JCheckBox matchAllCheckBox;
+    private JButton nextPageButton;
+
+    // Only one page of ranked results is materialized at a time
+    private static final int PAGE_SIZE = 100;
+    private List<String> searchKeywords = new ArrayList<>();
+    private boolean searchMatchAll = true;
+    private boolean searchFuzzy;
+    private SearchPage.Cursor nextCursor;
 
     public AddFoodToLogDialog(JFrame parent, LocalDate date, DailyLogManager dailyLogManager) {
         super(parent, "Add Food to " + date, true);
@@ -42,8 +50,8 @@ public class AddFoodToLogDialog extends JDialog {
         JPanel addFoodPanel = createAddFoodPanel();
         add(addFoodPanel, BorderLayout.SOUTH);
 
-        // Initial population of table
-        populateFoodTable(foodDatabase.getAllFoods());
+        // Initial population of table: the most logged foods first
+        showPage(null);
     }
 
     private JPanel createSearchPanel() {
@@ -54,7 +62,7 @@ public class AddFoodToLogDialog extends JDialog {
         searchPanel.add(searchField);
 
         // Match Type Dropdown
-        String[] matchTypes = { "Match All Keywords", "Match Any Keyword" };
+        String[] matchTypes = { "Match All Keywords", "Match Any Keyword", "Fuzzy Match (Typos)" };
         JComboBox<String> matchTypeComboBox = new JComboBox<>(matchTypes);
         searchPanel.add(new JLabel("Match Type:"));
         searchPanel.add(matchTypeComboBox);
@@ -63,6 +71,10 @@ public class AddFoodToLogDialog extends JDialog {
         searchButton.addActionListener(e -> performSearch(matchTypeComboBox)); // Pass matchTypeComboBox
         searchPanel.add(searchButton);
 
+        nextPageButton = new JButton("Next Page");
+        nextPageButton.addActionListener(e -> showPage(nextCursor));
+        searchPanel.add(nextPageButton);
+
         return searchPanel;
     }
 
@@ -93,23 +105,31 @@ public class AddFoodToLogDialog extends JDialog {
 
     private void performSearch(JComboBox<String> matchTypeComboBox) {
         String searchText = searchField.getText().trim();
-        boolean matchAll = matchTypeComboBox.getSelectedItem().equals("Match All Keywords");
-
-        List<Food> searchResults;
-        if (searchText.isEmpty()) {
-            searchResults = foodDatabase.getAllFoods();
-        } else {
-            // Split search text into keywords by commas and trim whitespace
-            List<String> keywords = new ArrayList<>();
+        // Fuzzy matching requires every keyword, allowing typos in each
+        boolean fuzzy = matchTypeComboBox.getSelectedItem().equals("Fuzzy Match (Typos)");
+        boolean matchAll = !matchTypeComboBox.getSelectedItem().equals("Match Any Keyword");
+
+        // Split search text into keywords by commas and trim whitespace;
+        // no search text lists all foods
+        List<String> keywords = new ArrayList<>();
+        if (!searchText.isEmpty()) {
             for (String keyword : searchText.split(",")) {
                 keywords.add(keyword.trim());
             }
-
-            // Search foods based on keywords and match type
-            searchResults = foodDatabase.searchFoods(keywords, matchAll);
         }
 
-        populateFoodTable(searchResults);
+        searchKeywords = keywords;
+        searchMatchAll = matchAll;
+        searchFuzzy = fuzzy;
+        showPage(null);
+    }
+
+    private void showPage(SearchPage.Cursor after) {
+        SearchPage page = foodDatabase.searchRanked(searchKeywords, searchMatchAll, searchFuzzy,
+                FoodDatabase.FoodType.ALL, PAGE_SIZE, after);
+        populateFoodTable(page.getFoods());
+        nextCursor = page.getNextCursor();
+        nextPageButton.setEnabled(page.hasMore());
     }
 
     private JPanel createAddFoodPanel() {
@@ -4,9 +4,7 @@ import model.*;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.ZoneId;
@@ -106,17 +104,11 @@ public class DailyLogUI extends JPanel {
 
         // Combine user profiles and daily profiles <= date
         List<UserProfile> allProfiles = new ArrayList<>(userProfiles);
-        File dailyProfileDir = new File("data/daily_profiles");
-        if (dailyProfileDir.exists()) {
-            File[] dailyFiles = dailyProfileDir.listFiles((dir, name) -> name.endsWith(".profile") &&
-                    !LocalDate.parse(name.replace(".profile", "")).isAfter(date));
-            if (dailyFiles != null) {
-                for (File dailyFile : dailyFiles) {
-                    LocalDate fileDate = LocalDate.parse(dailyFile.getName().replace(".profile", ""));
-                    UserProfile profile = loadDailyProfile(fileDate);
-                    if (profile != null)
-                        allProfiles.add(profile);
-                }
+        for (LocalDate profileDate : dailyLogManager.getProfileDates()) {
+            if (!profileDate.isAfter(date)) {
+                UserProfile profile = loadDailyProfile(profileDate);
+                if (profile != null)
+                    allProfiles.add(profile);
             }
         }
 
@@ -206,106 +198,44 @@ public class DailyLogUI extends JPanel {
         if (newDate != null) {
             // Create or get the daily log file
             dailyLogManager.getOrCreateLog(newDate);
-            // Create a daily profile file for the date if it doesn't exist
-            String profileFilePath = "data/daily_profiles/" + newDate.toString() + ".profile";
-            File dailyProfileFile = new File(profileFilePath);
-            if (!dailyProfileFile.exists()) {
-                createDailyProfileFile(newDate);
+            // Create a daily profile for the date if it doesn't exist
+            if (!dailyLogManager.hasDailyProfile(newDate)) {
+                createDailyProfile(newDate);
             }
             populateDateComboBox();
             dateComboBox.setSelectedItem(newDate);
         }
     }
     
-    private void createDailyProfileFile(LocalDate date) {
-        String profileFilePath = "data/daily_profiles/" + date.toString() + ".profile";
-        File file = new File(profileFilePath);
-        file.getParentFile().mkdirs();
-
-        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
-            // Load all eligible profiles (user + daily)
-            List<UserProfile> allProfiles = new ArrayList<>(userProfiles);
-            File dailyProfileDir = new File("data/daily_profiles");
-            if (dailyProfileDir.exists()) {
-                File[] dailyFiles = dailyProfileDir.listFiles(
-                        (dir, name) -> name.endsWith(".profile") && !name.equals(date.toString() + ".profile"));
-                if (dailyFiles != null) {
-                    for (File dailyFile : dailyFiles) {
-                        LocalDate fileDate = LocalDate.parse(dailyFile.getName().replace(".profile", ""));
-                        UserProfile profile = loadDailyProfile(fileDate);
-                        if (profile != null)
-                            allProfiles.add(profile);
-                    }
-                }
+    private void createDailyProfile(LocalDate date) {
+        // Load all eligible profiles (user + daily)
+        List<UserProfile> allProfiles = new ArrayList<>(userProfiles);
+        for (LocalDate profileDate : dailyLogManager.getProfileDates()) {
+            if (!profileDate.equals(date)) {
+                UserProfile profile = loadDailyProfile(profileDate);
+                if (profile != null)
+                    allProfiles.add(profile);
             }
-
-            // Find the latest profile <= date
-            UserProfile activeProfile = allProfiles.stream()
-                    .filter(p -> !p.getEffectiveDate().isAfter(date))
-                    .max(Comparator.comparing(UserProfile::getEffectiveDate))
-                    .orElse(null);
-
-            // Fallback to currentUserProfile if no profiles found
-            if (activeProfile == null)
-                activeProfile = currentUserProfile;
-
-            // Write inherited values to new profile
-            writer.println("EffectiveDate:" + date);
-            writer.println("Gender:" + activeProfile.getGender());
-            writer.println("Age:" + activeProfile.getAge());
-            writer.println("Weight:" + activeProfile.getWeight());
-            writer.println("Height:" + activeProfile.getHeight());
-            writer.println("ActivityLevel:" + activeProfile.getActivityLevel());
-            writer.println("---");
-
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this,
-                    "Error saving daily profile: " + ex.getMessage(),
-                    "Error", JOptionPane.ERROR_MESSAGE);
         }
-    }
-
-    private UserProfile loadDailyProfile(LocalDate date) {
-        String filePath = "data/daily_profiles/" + date + ".profile";
-        File file = new File(filePath);
-        if (!file.exists())
-            return null;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            LocalDate effectiveDate = date;
-            String gender = null;
-            int age = 0;
-            double weight = 0.0, height = 0.0;
-            String activityLevel = null;
-
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("EffectiveDate:")) {
-                    effectiveDate = LocalDate.parse(line.substring("EffectiveDate:".length()).trim());
-                } else if (line.startsWith("Gender:")) {
-                    gender = line.substring("Gender:".length()).trim();
-                } else if (line.startsWith("Age:")) {
-                    age = Integer.parseInt(line.substring("Age:".length()).trim());
-                } else if (line.startsWith("Weight:")) {
-                    weight = Double.parseDouble(line.substring("Weight:".length()).trim());
-                } else if (line.startsWith("Height:")) {
-                    height = Double.parseDouble(line.substring("Height:".length()).trim());
-                } else if (line.startsWith("ActivityLevel:")) {
-                    activityLevel = line.substring("ActivityLevel:".length()).trim();
-                }
-            }
+        // Find the latest profile <= date
+        UserProfile activeProfile = allProfiles.stream()
+                .filter(p -> !p.getEffectiveDate().isAfter(date))
+                .max(Comparator.comparing(UserProfile::getEffectiveDate))
+                .orElse(null);
 
-            // Validate required fields
-            if (gender == null || activityLevel == null) {
-                throw new IOException("Invalid profile format in: " + filePath);
-            }
+        // Fallback to currentUserProfile if no profiles found
+        if (activeProfile == null)
+            activeProfile = currentUserProfile;
 
-            return new UserProfile(effectiveDate, gender, age, weight, height, activityLevel);
+        // Store inherited values as the new profile
+        dailyLogManager.saveDailyProfile(new UserProfile(date, activeProfile.getGender(),
+                activeProfile.getAge(), activeProfile.getWeight(), activeProfile.getHeight(),
+                activeProfile.getActivityLevel()));
+    }
 
-        } catch (Exception ex) {
-            System.err.println("Failed to load profile: " + filePath);
-            return null;
-        }
+    private UserProfile loadDailyProfile(LocalDate date) {
+        return dailyLogManager.loadDailyProfile(date);
     }
 
     
@@ -366,7 +296,7 @@ public class DailyLogUI extends JPanel {
         UserProfile activeProfile = loadDailyProfile(selectedDate);
         if (activeProfile == null) {
             // If no daily profile exists, create one
-            createDailyProfileFile(selectedDate);
+            createDailyProfile(selectedDate);
             activeProfile = loadDailyProfile(selectedDate);
         }
 
@@ -383,15 +313,11 @@ public class DailyLogUI extends JPanel {
             return;
         }
 
-        // Reload the log from the file
-        dailyLogManager.getOrCreateLog(selectedDate);
-
-        // Construct the file path for the selected date
-        String filePath = "data/daily_logs/" + selectedDate.toString() + ".log";
-        java.io.File logFile = new java.io.File(filePath);
+        // The in-memory log is what gets saved, so it is shown directly
+        DailyLog log = dailyLogManager.getOrCreateLog(selectedDate);
 
-        if (!logFile.exists()) {
-            // Clear the table if the log file does not exist
+        if (log.getFoodEntries().isEmpty()) {
+            // Clear the table if nothing was logged that day
             tableModel.setRowCount(0);
             totalCaloriesLabel.setText("Total Calories: 0");
             targetCaloriesLabel.setText(String.format("Target: %.2f | Remaining: %.2f",
@@ -399,58 +325,29 @@ public class DailyLogUI extends JPanel {
             return;
         }
 
-        try (java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.FileReader(logFile))) {
-            // Clear existing rows
-            tableModel.setRowCount(0);
+        // Clear existing rows
+        tableModel.setRowCount(0);
 
-            double totalCalories = 0;
-
-            // Read each line from the log file
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(";");
-                if (parts.length == 3) {
-                    String foodId = parts[0];
-                    double servings = Double.parseDouble(parts[1]);
-                    long timestamp = Long.parseLong(parts[2]);
-
-                    // Retrieve the Food object from the FoodDatabase
-                    Food food = FoodDatabase.getInstance().findFoodByIdentifier(foodId);
-                    if (food != null) {
-                        // Calculate the total calories for this entry
-                        double calories = food.calculateTotalCalories(servings);
-
-                        // Add the row to the table
-                        tableModel.addRow(
-                                new Object[] { food.getIdentifier(), servings, String.format("%.2f", calories) });
-
-                        // Accumulate total calories
-                        totalCalories += calories;
-                    }
-                }
-            }
-
-
-            double var = totalCalories - targetCalories;
-
-            if(var < 0) {
-                targetCaloriesLabel.setText(String.format("Target: %.2f | Difference: %.2f(UnderTarget)",
-                        targetCalories, var));
-            }
-            if(var > 0) {
-                targetCaloriesLabel.setText(String.format("Target: %.2f | Difference: %.2f(OverTarget)",
-                        targetCalories, var));
-            }
+        // Entry views are only created here, one per row
+        for (DailyLog.FoodEntry entry : log.getFoodEntries()) {
+            tableModel.addRow(new Object[] { entry.getFood().getIdentifier(), entry.getServings(),
+                    String.format("%.2f", entry.getTotalCalories()) });
+        }
+        double totalCalories = log.getTotalCalories();
 
-            // Update total calories label
-            totalCaloriesLabel.setText(String.format("Total Calories Consumed: %.2f ", totalCalories));
+        double var = totalCalories - targetCalories;
 
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this,
-                    "Error reading log file: " + e.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
+        if(var < 0) {
+            targetCaloriesLabel.setText(String.format("Target: %.2f | Difference: %.2f(UnderTarget)",
+                    targetCalories, var));
         }
+        if(var > 0) {
+            targetCaloriesLabel.setText(String.format("Target: %.2f | Difference: %.2f(OverTarget)",
+                    targetCalories, var));
+        }
+
+        // Update total calories label
+        totalCaloriesLabel.setText(String.format("Total Calories Consumed: %.2f ", totalCalories));
 
         // Refresh the table
         tableModel.fireTableDataChanged();
@@ -471,7 +368,7 @@ public class DailyLogUI extends JPanel {
             double height = baseProfile.getHeight();
 
             // Update the daily profile for the selected date
-            updateDailyProfileFile(
+            updateDailyProfile(
                     updatedDate,
                     gender,
                     updatedProfile.getAge(),
@@ -482,23 +379,16 @@ public class DailyLogUI extends JPanel {
             // If the updated date is today or future, propagate changes to all future
             // profiles
             if (!updatedDate.isBefore(LocalDate.now())) {
-                File dailyProfileDir = new File("data/daily_profiles");
-                File[] dailyFiles = dailyProfileDir.listFiles((dir, name) -> name.endsWith(".profile"));
-
-                if (dailyFiles != null) {
-                    for (File file : dailyFiles) {
-                        String fileName = file.getName();
-                        LocalDate fileDate = LocalDate.parse(fileName.replace(".profile", ""));
-                        // Update all future or equal dates
-                        if (!fileDate.isBefore(updatedDate)) {
-                            updateDailyProfileFile(
-                                    fileDate,
-                                    gender,
-                                    updatedProfile.getAge(),
-                                    updatedProfile.getWeight(),
-                                    height,
-                                    updatedProfile.getActivityLevel());
-                        }
+                for (LocalDate profileDate : dailyLogManager.getProfileDates()) {
+                    // Update all future or equal dates
+                    if (!profileDate.isBefore(updatedDate)) {
+                        updateDailyProfile(
+                                profileDate,
+                                gender,
+                                updatedProfile.getAge(),
+                                updatedProfile.getWeight(),
+                                height,
+                                updatedProfile.getActivityLevel());
                     }
                 }
             }
@@ -515,23 +405,9 @@ public class DailyLogUI extends JPanel {
         }
     }
     
-    private void updateDailyProfileFile(LocalDate date, String gender, int age,
+    private void updateDailyProfile(LocalDate date, String gender, int age,
             double weight, double height, String activityLevel) {
-        String filePath = "data/daily_profiles/" + date + ".profile";
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
-            writer.println("EffectiveDate:" + date);
-            writer.println("Gender:" + gender);
-            writer.println("Age:" + age);
-            writer.println("Weight:" + weight);
-            writer.println("Height:" + height);
-            writer.println("ActivityLevel:" + activityLevel);
-            writer.println("---");
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this,
-                    "Failed to update daily profile: " + ex.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
-        }
+        dailyLogManager.saveDailyProfile(new UserProfile(date, gender, age, weight, height, activityLevel));
     }
     
     private void openProfileDialog() {
@@ -676,4 +552,8 @@ public class DailyLogUI extends JPanel {
                 "User Profile",
                 JOptionPane.INFORMATION_MESSAGE);
     }
-}
\ No newline at end of file
+
+    public DailyLogManager getDailyLogManager() {
+        return dailyLogManager;
+    }
+}
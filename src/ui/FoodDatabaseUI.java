@@ -1,24 +1,40 @@
 package ui;
 
+import model.CompositeFood;
+import model.DailyLogManager;
 import model.Food;
 import model.FoodDatabase;
 import model.BasicFood;
-import model.CompositeFood;
+import model.SearchPage;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class FoodDatabaseUI extends JPanel {
     private FoodDatabase foodDatabase;
+    private DailyLogManager dailyLogManager;
     private JTable foodTable;
     private DefaultTableModel tableModel;
     private JTextField searchField;
     // private JCheckBox matchAllCheckBox;
     private JComboBox<String> matchTypeComboBox;
     private JComboBox<String> foodTypeComboBox;
+    private JButton nextPageButton;
+    private JLabel resultsLabel;
+
+    // Only one page of ranked results is materialized at a time
+    private static final int PAGE_SIZE = 100;
+    private List<String> searchKeywords = new ArrayList<>();
+    private boolean searchMatchAll = true;
+    private boolean searchFuzzy;
+    private FoodDatabase.FoodType searchFoodType = FoodDatabase.FoodType.ALL;
+    private SearchPage.Cursor nextCursor;
+    private int shownBefore;
 
     public FoodDatabaseUI(FoodDatabase foodDatabase) {
         this.foodDatabase = foodDatabase;
@@ -34,8 +50,17 @@ public class FoodDatabaseUI extends JPanel {
         JScrollPane scrollPane = new JScrollPane(foodTable);
         add(scrollPane, BorderLayout.CENTER);
 
+        // Paging Panel
+        JPanel pagePanel = new JPanel(new FlowLayout());
+        resultsLabel = new JLabel();
+        pagePanel.add(resultsLabel);
+        nextPageButton = new JButton("Next Page");
+        nextPageButton.addActionListener(e -> showPage(nextCursor));
+        pagePanel.add(nextPageButton);
+        add(pagePanel, BorderLayout.SOUTH);
+
         // Initial population of table
-        populateFoodTable(foodDatabase.getAllFoods());
+        performSearch();
     }
 
     private JPanel createSearchPanel() {
@@ -53,7 +78,7 @@ public class FoodDatabaseUI extends JPanel {
         searchPanel.add(searchField);
 
         // Match Type Dropdown
-        String[] matchTypes = { "Match All Keywords", "Match Any Keyword" };
+        String[] matchTypes = { "Match All Keywords", "Match Any Keyword", "Fuzzy Match (Typos)" };
         matchTypeComboBox = new JComboBox<>(matchTypes);
         searchPanel.add(new JLabel("Match Type:"));
         searchPanel.add(matchTypeComboBox);
@@ -66,6 +91,10 @@ public class FoodDatabaseUI extends JPanel {
         resetButton.addActionListener(e -> resetSearch());
         searchPanel.add(resetButton);
 
+        JButton usedInButton = new JButton("Used In");
+        usedInButton.addActionListener(e -> showUsedIn());
+        searchPanel.add(usedInButton);
+
         return searchPanel;
     }
 
@@ -100,64 +129,103 @@ public class FoodDatabaseUI extends JPanel {
     private void performSearch() {
         String searchText = searchField.getText().trim();
         String selectedMatchType = (String) matchTypeComboBox.getSelectedItem();
-        boolean matchAll = selectedMatchType.equals("Match All Keywords");
+        // Fuzzy matching requires every keyword, allowing typos in each
+        boolean fuzzy = selectedMatchType.equals("Fuzzy Match (Typos)");
+        boolean matchAll = !selectedMatchType.equals("Match Any Keyword");
         String selectedFoodType = (String) foodTypeComboBox.getSelectedItem();
 
-        List<Food> searchResults;
-
-        // Perform search based on keywords
-        if (searchText.isEmpty()) {
-            // If no search text, get all foods
-            searchResults = getFoodsByType(selectedFoodType);
-        } else {
-            // Split search text into keywords by commas and trim whitespace
-            List<String> keywords = new ArrayList<>();
+        // Split search text into keywords by commas and trim whitespace;
+        // no search text lists all foods of the selected type
+        List<String> keywords = new ArrayList<>();
+        if (!searchText.isEmpty()) {
             for (String keyword : searchText.split(",")) {
                 keywords.add(keyword.trim());
             }
+        }
 
-            // First, search for foods matching keywords
-            searchResults = foodDatabase.searchFoods(keywords, matchAll);
+        searchKeywords = keywords;
+        searchMatchAll = matchAll;
+        searchFuzzy = fuzzy;
+        searchFoodType = toFoodType(selectedFoodType);
+        showPage(null);
+    }
 
-            // Then filter by food type
-            searchResults = filterByFoodType(searchResults, selectedFoodType);
+    // Shows the best matches after the cursor, most relevant and most logged first
+    private void showPage(SearchPage.Cursor after) {
+        if (after == null) {
+            shownBefore = 0;
+        } else {
+            shownBefore += tableModel.getRowCount();
+        }
+        SearchPage page = foodDatabase.searchRanked(searchKeywords, searchMatchAll, searchFuzzy,
+                searchFoodType, PAGE_SIZE, after);
+        populateFoodTable(page.getFoods());
+        nextCursor = page.getNextCursor();
+        nextPageButton.setEnabled(page.hasMore());
+        if (page.getFoods().isEmpty()) {
+            resultsLabel.setText("No matches");
+        } else {
+            resultsLabel.setText(String.format("Showing %d-%d of %d", shownBefore + 1,
+                    shownBefore + page.getFoods().size(), page.getTotalMatches()));
         }
-
-        // Populate table with search results
-        populateFoodTable(searchResults);
     }
 
 
-    private List<Food> filterByFoodType(List<Food> foods, String foodType) {
+    private FoodDatabase.FoodType toFoodType(String foodType) {
         switch (foodType) {
             case "Basic Foods":
-                return foods.stream()
-                        .filter(food -> food instanceof BasicFood)
-                        .collect(java.util.stream.Collectors.toList());
+                return FoodDatabase.FoodType.BASIC;
             case "Composite Foods":
-                return foods.stream()
-                        .filter(food -> food instanceof CompositeFood)
-                        .collect(java.util.stream.Collectors.toList());
+                return FoodDatabase.FoodType.COMPOSITE;
             default:
-                return foods;
+                return FoodDatabase.FoodType.ALL;
         }
     }
 
-    private List<Food> getFoodsByType(String foodType) {
-        switch (foodType) {
-            case "Basic Foods":
-                return new ArrayList<>(foodDatabase.getBasicFoods());
-            case "Composite Foods":
-                return new ArrayList<>(foodDatabase.getCompositeFoods());
-            default:
-                return foodDatabase.getAllFoods();
+    // Lets the "Used In" view list the days a food was logged
+    public void setDailyLogManager(DailyLogManager dailyLogManager) {
+        this.dailyLogManager = dailyLogManager;
+    }
+
+    // Shows the recipes and days that use the selected food, from the reverse indexes
+    private void showUsedIn() {
+        int selectedRow = foodTable.getSelectedRow();
+        if (selectedRow < 0) {
+            JOptionPane.showMessageDialog(this,
+                    "Please select a food.",
+                    "No Selection",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        String identifier = (String) tableModel.getValueAt(selectedRow, 1);
+
+        StringBuilder message = new StringBuilder();
+        message.append("Recipes using ").append(identifier).append(" directly: ")
+                .append(joinIdentifiers(foodDatabase.getParentComposites(identifier))).append("\n");
+        message.append("All recipes containing it: ")
+                .append(joinIdentifiers(foodDatabase.getCompositesContaining(identifier))).append("\n");
+        if (dailyLogManager != null) {
+            List<LocalDate> dates = dailyLogManager.getDatesLogged(identifier);
+            message.append("Logged on: ").append(dates.isEmpty() ? "none"
+                    : dates.stream().map(LocalDate::toString).collect(Collectors.joining(", ")));
+            if (!dailyLogManager.isIndexComplete()) {
+                message.append("\n(Still indexing older logs; this list may be incomplete.)");
+            }
+        }
+        JOptionPane.showMessageDialog(this, message.toString(), "Used In", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private String joinIdentifiers(List<CompositeFood> foods) {
+        if (foods.isEmpty()) {
+            return "none";
         }
+        return foods.stream().map(Food::getIdentifier).collect(Collectors.joining(", "));
     }
 
     private void resetSearch() {
         searchField.setText("");
         matchTypeComboBox.setSelectedIndex(0); // Reset to the first option in the dropdown
         foodTypeComboBox.setSelectedIndex(0); // Reset to "All Foods"
-        populateFoodTable(foodDatabase.getAllFoods()); // Reset the table to show all foods
+        performSearch(); // Reset the table to show all foods
     }
 }
\ No newline at end of file
@@ -1,15 +1,21 @@
 package ui;
 
+import model.DuplicateDetector;
 import model.FoodDatabase;
 import util.FileManager;
+import util.FoodJournal;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class MainApplication extends JFrame {
     private FoodDatabase foodDatabase;
     private FoodDatabaseUI foodDatabaseUI;
     private DailyLogUI dailyLogUI;
+    private FoodJournal foodJournal;
+    private DuplicateDetector duplicateDetector;
 
     public MainApplication() {
         // Set up the main application window
@@ -29,20 +35,32 @@ public class MainApplication extends JFrame {
         // Initialize food database as singleton
         foodDatabase = FoodDatabase.getInstance();
 
-        // Load existing foods from files
-        FileManager.loadBasicFoods(foodDatabase);
-        FileManager.loadCompositeFoods(foodDatabase);
+        // Load existing foods from the binary catalog or the text files
+        FileManager.loadFoods(foodDatabase);
+
+        // Replay and keep journaling changes made since the base files were written
+        try {
+            foodJournal = FoodJournal.open(foodDatabase);
+        } catch (java.io.IOException e) {
+            System.err.println("Error opening food journal: " + e.getMessage());
+        }
+
+        // Flags near-duplicates of new foods; indexes the database on first use
+        duplicateDetector = DuplicateDetector.open(foodDatabase);
 
         // Create tabs
         JTabbedPane tabbedPane = new JTabbedPane();
 
+        // Create the daily log UI first, so searches can rank foods by how often they were logged
+        dailyLogUI = new DailyLogUI();
+        foodDatabase.setUsageSource(dailyLogUI.getDailyLogManager()::getUsageCount);
+
         // Create the food database UI
         foodDatabaseUI = new FoodDatabaseUI(foodDatabase);
         tabbedPane.addTab("Food Database", foodDatabaseUI);
 
-        // Create the daily log UI
-        dailyLogUI = new DailyLogUI();
         tabbedPane.addTab("Daily Log", dailyLogUI);
+        foodDatabaseUI.setDailyLogManager(dailyLogUI.getDailyLogManager());
 
         // Add tabbed pane to frame
         add(tabbedPane);
@@ -61,8 +79,10 @@ public class MainApplication extends JFrame {
 
         if (response == JOptionPane.YES_OPTION) {
             saveDatabase(); // Save the database
+            closeStores();
             System.exit(0); // Exit the application
         } else if (response == JOptionPane.NO_OPTION) {
+            closeStores();
             System.exit(0); // Exit without saving
         }
         // If CANCEL_OPTION, do nothing and return to the application
@@ -91,6 +111,10 @@ public class MainApplication extends JFrame {
         addCompositeFoodMenuItem.addActionListener(e -> addCompositeFood());
         foodMenu.add(addCompositeFoodMenuItem);
 
+        JMenuItem findDuplicatesMenuItem = new JMenuItem("Find Near-Duplicates");
+        findDuplicatesMenuItem.addActionListener(e -> findDuplicates());
+        foodMenu.add(findDuplicatesMenuItem);
+
         menuBar.add(fileMenu);
         menuBar.add(foodMenu);
 
@@ -98,12 +122,34 @@ public class MainApplication extends JFrame {
     }
 
     private void saveDatabase() {
-        // Save basic and composite foods
-        FileManager.saveBasicFoods(foodDatabase);
-        FileManager.saveCompositeFoods(foodDatabase);
+        if (foodJournal != null) {
+            // A change is saved once its journal record is synced; folding the journal
+            // into the base files and the catalog is left to the background compactor
+            try {
+                foodJournal.flush();
+            } catch (java.io.IOException e) {
+                JOptionPane.showMessageDialog(this,
+                        "Error saving database: " + e.getMessage(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+        } else {
+            // Save basic and composite foods
+            FileManager.saveBasicFoods(foodDatabase);
+            FileManager.saveCompositeFoods(foodDatabase);
+            FileManager.saveBinaryCatalog(foodDatabase);
+        }
         JOptionPane.showMessageDialog(this, "Database saved successfully!");
     }
 
+    private void closeStores() {
+        if (foodJournal != null) {
+            foodJournal.close();
+        }
+        dailyLogUI.getDailyLogManager().close();
+    }
+
     private void exitApplication() {
         // Prompt to save before exit
         int response = JOptionPane.showConfirmDialog(
@@ -114,22 +160,36 @@ public class MainApplication extends JFrame {
 
         if (response == JOptionPane.YES_OPTION) {
             saveDatabase();
+            closeStores();
             System.exit(0);
         } else if (response == JOptionPane.NO_OPTION) {
+            closeStores();
             System.exit(0);
         }
     }
 
     private void addBasicFood() {
-        AddFoodDialog dialog = new AddFoodDialog(this, foodDatabase, true);
+        AddFoodDialog dialog = new AddFoodDialog(this, foodDatabase, duplicateDetector, true);
         dialog.setVisible(true);
     }
 
     private void addCompositeFood() {
-        AddFoodDialog dialog = new AddFoodDialog(this, foodDatabase, false);
+        AddFoodDialog dialog = new AddFoodDialog(this, foodDatabase, duplicateDetector, false);
         dialog.setVisible(true);
     }
 
+    // Dedup report over the whole database, e.g. after importing a vendor catalog
+    private void findDuplicates() {
+        List<DuplicateDetector.Candidate> candidates = duplicateDetector.report(foodDatabase.getAllFoods());
+        JTextArea report = new JTextArea(candidates.isEmpty() ? "No near-duplicate foods found."
+                : candidates.stream().map(DuplicateDetector.Candidate::toString).collect(Collectors.joining("\n")));
+        report.setEditable(false);
+        JScrollPane scrollPane = new JScrollPane(report);
+        scrollPane.setPreferredSize(new Dimension(500, 300));
+        JOptionPane.showMessageDialog(this, scrollPane,
+                candidates.size() + " Near-Duplicate Pairs", JOptionPane.INFORMATION_MESSAGE);
+    }
+
     public static void main(String[] args) {
         // Use Swing thread for thread-safety
         SwingUtilities.invokeLater(() -> {
@@ -0,0 +1,337 @@
+package util;
+
+import model.BasicFood;
+import model.CompositeFood;
+import model.FoodDatabase;
+import model.FoodSnapshot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Versioned binary snapshot of the food database, written next to the text files
+// and read through a read-only memory mapping. Layout (big-endian):
+//   header     magic, version, counts and section offsets (HEADER_SIZE bytes)
+//   strings    int[stringCount + 1] offsets, then UTF-8 bytes of every string
+//   basics     fixed-width records: name, calories, keyword start, keyword count
+//   composites fixed-width records: name, keyword start/count, component
+//              start/count, stored calories per serving
+//   keywords   int[] string ids referenced by the keyword ranges
+//   components (food ref, servings) pairs; ref >= 0 is a basic food index,
+//              ref < 0 is composite index -(ref + 1)
+//   hash       open-addressing table of basic food index + 1 by identifier
+public class BinaryCatalog {
+    private static final int MAGIC = 0x59414443; // "YADC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int BASIC_RECORD_SIZE = 20;
+    private static final int COMPOSITE_RECORD_SIZE = 28;
+    private static final int COMPONENT_SIZE = 12;
+
+    private final MappedByteBuffer buffer;
+    private final int basicCount;
+    private final int compositeCount;
+    private final int stringOffsetsStart;
+    private final int stringDataStart;
+    private final int basicsStart;
+    private final int compositesStart;
+    private final int keywordsStart;
+    private final int componentsStart;
+    private final int hashStart;
+    private final int hashCapacity;
+
+    private BinaryCatalog(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a food catalog file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported food catalog version: " + buffer.getInt(4));
+        }
+        basicCount = buffer.getInt(8);
+        compositeCount = buffer.getInt(12);
+        hashCapacity = buffer.getInt(16);
+        stringOffsetsStart = buffer.getInt(20);
+        stringDataStart = buffer.getInt(24);
+        basicsStart = buffer.getInt(28);
+        compositesStart = buffer.getInt(32);
+        keywordsStart = buffer.getInt(36);
+        componentsStart = buffer.getInt(40);
+        hashStart = buffer.getInt(44);
+        // The hash table ends the file, so a catalog cut short by a crash is caught here
+        if (buffer.capacity() != hashStart + (long) hashCapacity * 4) {
+            throw new IOException("Truncated food catalog file");
+        }
+    }
+
+    public static BinaryCatalog open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new BinaryCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static void write(FoodDatabase database, File file) throws IOException {
+        // Both lists from one version, so every component reference resolves
+        FoodSnapshot snapshot = database.snapshot();
+        List<BasicFood> basics = snapshot.getBasicFoods();
+        List<CompositeFood> composites = snapshot.getCompositeFoods();
+
+        Map<String, Integer> stringIds = new HashMap<>();
+        ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+        ByteArrayOutputStream stringOffsets = new ByteArrayOutputStream();
+        DataOutputStream offsets = new DataOutputStream(stringOffsets);
+        ByteArrayOutputStream keywordRefs = new ByteArrayOutputStream();
+        DataOutputStream keywords = new DataOutputStream(keywordRefs);
+        int keywordCount = 0;
+
+        Map<String, Integer> basicIndexes = new HashMap<>();
+        Map<String, Integer> compositeIndexes = new HashMap<>();
+        for (int i = 0; i < basics.size(); i++) {
+            basicIndexes.put(basics.get(i).getIdentifier(), i);
+        }
+        for (int i = 0; i < composites.size(); i++) {
+            compositeIndexes.put(composites.get(i).getIdentifier(), i);
+        }
+
+        ByteArrayOutputStream basicRecords = new ByteArrayOutputStream();
+        DataOutputStream basicOut = new DataOutputStream(basicRecords);
+        for (BasicFood food : basics) {
+            basicOut.writeInt(stringId(food.getIdentifier(), stringIds, stringData, offsets));
+            basicOut.writeDouble(food.getCaloriesPerServing());
+            basicOut.writeInt(keywordCount);
+            basicOut.writeInt(food.getKeywords().size());
+            for (String keyword : food.getKeywords()) {
+                keywords.writeInt(stringId(keyword, stringIds, stringData, offsets));
+                keywordCount++;
+            }
+        }
+
+        ByteArrayOutputStream compositeRecords = new ByteArrayOutputStream();
+        DataOutputStream compositeOut = new DataOutputStream(compositeRecords);
+        ByteArrayOutputStream componentRecords = new ByteArrayOutputStream();
+        int componentCount = 0;
+        for (CompositeFood food : composites) {
+            // Resolve components first; ones that are not part of the database are dropped
+            ByteArrayOutputStream resolved = new ByteArrayOutputStream();
+            DataOutputStream resolvedOut = new DataOutputStream(resolved);
+            int resolvedCount = 0;
+            // By identifier, so lazily loaded composites are written without being resolved;
+            // basic foods take precedence, as in findFoodByIdentifier
+            List<String> componentIds = food.getComponentIdentifiers();
+            double[] servings = food.getComponentServings();
+            for (int c = 0; c < servings.length; c++) {
+                Integer basicIndex = basicIndexes.get(componentIds.get(c));
+                Integer compositeIndex = basicIndex == null ? compositeIndexes.get(componentIds.get(c)) : null;
+                if (basicIndex != null || compositeIndex != null) {
+                    resolvedOut.writeInt(basicIndex != null ? basicIndex : -(compositeIndex + 1));
+                    resolvedOut.writeDouble(servings[c]);
+                    resolvedCount++;
+                }
+            }
+
+            compositeOut.writeInt(stringId(food.getIdentifier(), stringIds, stringData, offsets));
+            compositeOut.writeInt(keywordCount);
+            compositeOut.writeInt(food.getKeywords().size());
+            compositeOut.writeInt(componentCount);
+            compositeOut.writeInt(resolvedCount);
+            compositeOut.writeDouble(food.getCaloriesPerServing());
+            for (String keyword : food.getKeywords()) {
+                keywords.writeInt(stringId(keyword, stringIds, stringData, offsets));
+                keywordCount++;
+            }
+            resolved.writeTo(componentRecords);
+            componentCount += resolvedCount;
+        }
+        offsets.writeInt(stringData.size());
+
+        int hashCapacity = Integer.highestOneBit(Math.max(basics.size(), 1) * 2) * 2;
+        int[] slots = new int[hashCapacity];
+        for (int i = 0; i < basics.size(); i++) {
+            int slot = hash(basics.get(i).getIdentifier()) & (hashCapacity - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (hashCapacity - 1);
+            }
+            slots[slot] = i + 1;
+        }
+
+        int stringOffsetsStart = HEADER_SIZE;
+        int stringDataStart = stringOffsetsStart + stringOffsets.size();
+        int basicsStart = stringDataStart + stringData.size();
+        int compositesStart = basicsStart + basicRecords.size();
+        int keywordsStart = compositesStart + compositeRecords.size();
+        int componentsStart = keywordsStart + keywordRefs.size();
+        int hashStart = componentsStart + componentRecords.size();
+
+        // Write to a temporary file and move it into place, so an open mapping of
+        // the previous catalog is never modified underneath its reader and a crash
+        // leaves either the old catalog or the complete new one
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(basics.size());
+            out.writeInt(composites.size());
+            out.writeInt(hashCapacity);
+            out.writeInt(stringOffsetsStart);
+            out.writeInt(stringDataStart);
+            out.writeInt(basicsStart);
+            out.writeInt(compositesStart);
+            out.writeInt(keywordsStart);
+            out.writeInt(componentsStart);
+            out.writeInt(hashStart);
+            out.write(new byte[HEADER_SIZE - 48]);
+            stringOffsets.writeTo(out);
+            stringData.writeTo(out);
+            basicRecords.writeTo(out);
+            compositeRecords.writeTo(out);
+            keywordRefs.writeTo(out);
+            componentRecords.writeTo(out);
+            for (int slot : slots) {
+                out.writeInt(slot);
+            }
+            out.flush();
+            stream.getChannel().force(false);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int stringId(String value, Map<String, Integer> stringIds, ByteArrayOutputStream data,
+            DataOutputStream offsets) throws IOException {
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = stringIds.size();
+            stringIds.put(value, id);
+            offsets.writeInt(data.size());
+            data.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    private static int hash(String identifier) {
+        int h = identifier.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    public int getBasicCount() {
+        return basicCount;
+    }
+
+    public int getCompositeCount() {
+        return compositeCount;
+    }
+
+    // Index of the basic food with this identifier, or -1; compares raw bytes in the mapping
+    public int findBasic(String identifier) {
+        byte[] wanted = identifier.getBytes(StandardCharsets.UTF_8);
+        int mask = hashCapacity - 1;
+        for (int slot = hash(identifier) & mask;; slot = (slot + 1) & mask) {
+            int entry = buffer.getInt(hashStart + slot * 4);
+            if (entry == 0) {
+                return -1;
+            }
+            if (stringEquals(buffer.getInt(basicRecord(entry - 1)), wanted)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    public String getBasicIdentifier(int index) {
+        return string(buffer.getInt(basicRecord(index)));
+    }
+
+    public double getBasicCalories(int index) {
+        return buffer.getDouble(basicRecord(index) + 4);
+    }
+
+    public List<String> getBasicKeywords(int index) {
+        int record = basicRecord(index);
+        return keywords(buffer.getInt(record + 12), buffer.getInt(record + 16));
+    }
+
+    public String getCompositeIdentifier(int index) {
+        return string(buffer.getInt(compositeRecord(index)));
+    }
+
+    public List<String> getCompositeKeywords(int index) {
+        int record = compositeRecord(index);
+        return keywords(buffer.getInt(record + 4), buffer.getInt(record + 8));
+    }
+
+    public double getStoredCompositeCalories(int index) {
+        return buffer.getDouble(compositeRecord(index) + 20);
+    }
+
+    public int getComponentCount(int index) {
+        return buffer.getInt(compositeRecord(index) + 16);
+    }
+
+    // Basic food index, or -(composite index + 1)
+    public int getComponentRef(int index, int component) {
+        return buffer.getInt(component(index, component));
+    }
+
+    public double getComponentServings(int index, int component) {
+        return buffer.getDouble(component(index, component) + 4);
+    }
+
+    private int basicRecord(int index) {
+        return basicsStart + index * BASIC_RECORD_SIZE;
+    }
+
+    private int compositeRecord(int index) {
+        return compositesStart + index * COMPOSITE_RECORD_SIZE;
+    }
+
+    private int component(int index, int component) {
+        return componentsStart + (buffer.getInt(compositeRecord(index) + 12) + component) * COMPONENT_SIZE;
+    }
+
+    private List<String> keywords(int start, int count) {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int i) {
+                return string(buffer.getInt(keywordsStart + (start + i) * 4));
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    private String string(int id) {
+        int start = buffer.getInt(stringOffsetsStart + id * 4);
+        int end = buffer.getInt(stringOffsetsStart + (id + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringDataStart + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean stringEquals(int id, byte[] wanted) {
+        int start = stringDataStart + buffer.getInt(stringOffsetsStart + id * 4);
+        int end = stringDataStart + buffer.getInt(stringOffsetsStart + (id + 1) * 4);
+        if (end - start != wanted.length) {
+            return false;
+        }
+        for (int i = 0; i < wanted.length; i++) {
+            if (buffer.get(start + i) != wanted[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
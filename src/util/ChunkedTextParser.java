@@ -0,0 +1,314 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Parses separator-delimited text files line by line. The file is memory-mapped and
+// cut into newline-aligned chunks that are parsed as ForkJoin tasks; numeric fields
+// are read straight from the mapped bytes, and only fields asked for as strings are
+// decoded. Results keep file order.
+public class ChunkedTextParser {
+    // Files up to this size are parsed as one chunk on the calling thread
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // Turns one line into a result, or null to skip the line
+    public interface LineParser<T> {
+        T parse(Line line);
+    }
+
+    // E.g. a pool sized for imports; defaults to the common pool
+    public static void setPool(ForkJoinPool forkJoinPool) {
+        pool = forkJoinPool;
+    }
+
+    public static <T> List<T> parse(File file, char separator, LineParser<T> parser) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to parse: " + file);
+            }
+            if (size == 0) {
+                return new ArrayList<>();
+            }
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), separator, parser);
+        }
+    }
+
+    public static <T> List<T> parse(ByteBuffer buffer, char separator, LineParser<T> parser) {
+        int size = buffer.limit();
+        if (size == 0) {
+            return new ArrayList<>();
+        }
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        for (int start = 0; start < size;) {
+            // Advance to just past the first newline after the nominal chunk end
+            int end = Math.min(size, start + CHUNK_SIZE);
+            while (end < size && buffer.get(end - 1) != '\n') {
+                end++;
+            }
+            bounds.add(end);
+            start = end;
+        }
+        ChunkTask<T> task = new ChunkTask<>(buffer, bounds, 0, bounds.size() - 1, (byte) separator, parser);
+        return bounds.size() == 2 ? task.compute() : pool.invoke(task);
+    }
+
+    private static class ChunkTask<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer buffer;
+        private final List<Integer> bounds;
+        private final int firstChunk;
+        private final int endChunk;
+        private final byte separator;
+        private final LineParser<T> parser;
+
+        ChunkTask(ByteBuffer buffer, List<Integer> bounds, int firstChunk, int endChunk, byte separator,
+                LineParser<T> parser) {
+            this.buffer = buffer;
+            this.bounds = bounds;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+            this.separator = separator;
+            this.parser = parser;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (endChunk - firstChunk > 1) {
+                int middle = (firstChunk + endChunk) >>> 1;
+                ChunkTask<T> right = new ChunkTask<>(buffer, bounds, middle, endChunk, separator, parser);
+                right.fork();
+                List<T> results = new ChunkTask<>(buffer, bounds, firstChunk, middle, separator, parser).compute();
+                results.addAll(right.join());
+                return results;
+            }
+            // One bulk copy out of the mapping, then plain array scans
+            int chunkStart = bounds.get(firstChunk);
+            byte[] bytes = new byte[bounds.get(endChunk) - chunkStart];
+            buffer.get(chunkStart, bytes);
+
+            List<T> results = new ArrayList<>();
+            Line line = new Line(bytes, separator);
+            for (int start = 0; start < bytes.length;) {
+                int next = line.scan(start);
+                T result = parser.parse(line);
+                if (result != null) {
+                    results.add(result);
+                }
+                start = next + 1;
+            }
+            return results;
+        }
+    }
+
+    // The fields of the current line. Only valid inside LineParser.parse.
+    public static class Line {
+        private final byte[] buffer;
+        private final byte separator;
+        private int[] fieldStarts = new int[8];
+        private int[] fieldEnds = new int[8];
+        private int fieldCount;
+        private int start;
+        private int end;
+
+        Line(byte[] buffer, byte separator) {
+            this.buffer = buffer;
+            this.separator = separator;
+        }
+
+        // Splits the line starting here into fields in one pass; returns the index of
+        // its newline (or the end of the buffer)
+        int scan(int lineStart) {
+            start = lineStart;
+            fieldCount = 0;
+            int fieldStart = lineStart;
+            int i = lineStart;
+            for (; i < buffer.length && buffer[i] != '\n'; i++) {
+                if (buffer[i] == separator) {
+                    addField(fieldStart, i);
+                    fieldStart = i + 1;
+                }
+            }
+            end = i > lineStart && buffer[i - 1] == '\r' ? i - 1 : i;
+            addField(Math.min(fieldStart, end), end);
+            return i;
+        }
+
+        private void addField(int fieldStart, int fieldEnd) {
+            if (fieldCount == fieldStarts.length) {
+                fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+                fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            }
+            fieldStarts[fieldCount] = fieldStart;
+            fieldEnds[fieldCount] = fieldEnd;
+            fieldCount++;
+        }
+
+        public boolean isEmpty() {
+            return start == end;
+        }
+
+        // Number of fields, not counting trailing empty ones (as String.split would)
+        public int fieldCount() {
+            int count = fieldCount;
+            while (count > 0 && fieldStarts[count - 1] == fieldEnds[count - 1]) {
+                count--;
+            }
+            return count;
+        }
+
+        public boolean isEmpty(int field) {
+            return field >= fieldCount || fieldStarts[field] == fieldEnds[field];
+        }
+
+        public String getString(int field) {
+            return field >= fieldCount ? "" : decode(fieldStarts[field], fieldEnds[field]);
+        }
+
+        public String getLine() {
+            return decode(start, end);
+        }
+
+        // Whether the field holds exactly this ASCII text
+        public boolean fieldEquals(int field, String text) {
+            if (field >= fieldCount || fieldEnds[field] - fieldStarts[field] != text.length()) {
+                return false;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                if (buffer[fieldStarts[field] + i] != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public long getLong(int field) {
+            int from = field < fieldCount ? fieldStarts[field] : end;
+            int to = field < fieldCount ? fieldEnds[field] : end;
+            boolean negative = from < to && buffer[from] == '-';
+            int i = negative || (from < to && buffer[from] == '+') ? from + 1 : from;
+            if (i == to || to - i > 18) {
+                return Long.parseLong(getString(field)); // Empty or possibly overflowing; let it decide
+            }
+            long value = 0;
+            for (; i < to; i++) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return Long.parseLong(getString(field));
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        public int getInt(int field) {
+            long value = getLong(field);
+            if (value != (int) value) {
+                throw new NumberFormatException("Value out of range for an int: " + getString(field));
+            }
+            return (int) value;
+        }
+
+        // Plain decimals are converted exactly from the bytes when the digits fit in a
+        // double's mantissa and the power of ten is itself exact (Clinger's fast path);
+        // anything else falls back to Double.parseDouble
+        public double getDouble(int field) {
+            int from = field < fieldCount ? fieldStarts[field] : end;
+            int to = field < fieldCount ? fieldEnds[field] : end;
+            while (from < to && buffer[from] <= ' ') {
+                from++;
+            }
+            while (to > from && buffer[to - 1] <= ' ') {
+                to--;
+            }
+            int i = from;
+            boolean negative = false;
+            if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+                negative = buffer[i] == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int scale = 0;
+            boolean seenDigit = false;
+            boolean seenPoint = false;
+            for (; i < to; i++) {
+                byte b = buffer[i];
+                if (b >= '0' && b <= '9') {
+                    seenDigit = true;
+                    if (mantissa != 0 || b != '0') {
+                        if (++digits > 15) {
+                            return parseSlow(field);
+                        }
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (seenPoint) {
+                        scale--;
+                    }
+                } else if (b == '.' && !seenPoint) {
+                    seenPoint = true;
+                } else {
+                    break;
+                }
+            }
+            if (!seenDigit) {
+                return parseSlow(field);
+            }
+            if (i < to && (buffer[i] == 'e' || buffer[i] == 'E')) {
+                i++;
+                boolean negativeExponent = false;
+                if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+                    negativeExponent = buffer[i] == '-';
+                    i++;
+                }
+                int exponent = 0;
+                int exponentStart = i;
+                for (; i < to && buffer[i] >= '0' && buffer[i] <= '9' && exponent < 1000; i++) {
+                    exponent = exponent * 10 + (buffer[i] - '0');
+                }
+                if (i == exponentStart) {
+                    return parseSlow(field);
+                }
+                scale += negativeExponent ? -exponent : exponent;
+            }
+            if (i != to) {
+                return parseSlow(field); // Suffixes, NaN, Infinity, hex and malformed input
+            }
+            double value;
+            if (mantissa == 0) {
+                value = 0.0;
+            } else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+                value = mantissa * POWERS_OF_TEN[scale];
+            } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+                value = mantissa / POWERS_OF_TEN[-scale];
+            } else {
+                return parseSlow(field);
+            }
+            return negative ? -value : value;
+        }
+
+        private double parseSlow(int field) {
+            return Double.parseDouble(getString(field));
+        }
+
+        private String decode(int from, int to) {
+            return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+        }
+    }
+}
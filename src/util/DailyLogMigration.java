@@ -0,0 +1,78 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Imports the one-file-per-day layout (<date>.log files and <date>.profile files)
+// into a SegmentedLogStore, oldest day first, so the imported history is laid out
+// in date order. All files go to the store as one batch with a single sync. Days
+// the store already has are skipped, so running it again does not overwrite newer
+// data; the old files are left in place. Once every file is in the store, a marker
+// file in the store directory records that the import is complete, so an import
+// interrupted by a crash is finished on the next start.
+public class DailyLogMigration {
+    public static final String LOGS_DIRECTORY = "data/daily_logs";
+    public static final String PROFILES_DIRECTORY = "data/daily_profiles";
+    private static final String MARKER_FILE = "migrated";
+
+    public static boolean isComplete(SegmentedLogStore store) {
+        return new File(store.getDirectory(), MARKER_FILE).exists();
+    }
+
+    // Returns the number of files imported
+    public static int migrate(File logsDirectory, File profilesDirectory, SegmentedLogStore store)
+            throws IOException {
+        Map<Byte, Map<LocalDate, byte[]>> batch = new LinkedHashMap<>();
+        int imported = readFiles(logsDirectory, ".log", SegmentedLogStore.LOG, store, batch)
+                + readFiles(profilesDirectory, ".profile", SegmentedLogStore.PROFILE, store, batch);
+        store.writeAll(batch, true);
+        // Only after the batch is synced
+        new File(store.getDirectory(), MARKER_FILE).createNewFile();
+        return imported;
+    }
+
+    // Adds the files of the directory the store does not have yet to the batch, by date
+    private static int readFiles(File directory, String extension, byte kind, SegmentedLogStore store,
+            Map<Byte, Map<LocalDate, byte[]>> batch) throws IOException {
+        TreeMap<LocalDate, File> files = new TreeMap<>();
+        String[] names = directory.list((dir, name) -> name.endsWith(extension));
+        if (names == null) {
+            return 0;
+        }
+        for (String name : names) {
+            try {
+                files.put(LocalDate.parse(name.substring(0, name.length() - extension.length())),
+                        new File(directory, name));
+            } catch (Exception e) {
+                System.err.println("Ignoring file: " + name);
+            }
+        }
+        Map<LocalDate, byte[]> payloads = new LinkedHashMap<>();
+        for (Map.Entry<LocalDate, File> entry : files.entrySet()) {
+            if (!store.contains(kind, entry.getKey())) {
+                payloads.put(entry.getKey(), Files.readAllBytes(entry.getValue().toPath()));
+            }
+        }
+        batch.put(kind, payloads);
+        return payloads.size();
+    }
+
+    // Usage: DailyLogMigration [logsDirectory profilesDirectory storeDirectory]
+    public static void main(String[] args) throws IOException {
+        File logsDirectory = new File(args.length > 0 ? args[0] : LOGS_DIRECTORY);
+        File profilesDirectory = new File(args.length > 1 ? args[1] : PROFILES_DIRECTORY);
+        File storeDirectory = new File(args.length > 2 ? args[2] : "data/daily_store");
+        SegmentedLogStore store = SegmentedLogStore.open(storeDirectory);
+        try {
+            int imported = migrate(logsDirectory, profilesDirectory, store);
+            System.out.println("Imported " + imported + " files into " + storeDirectory);
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -4,22 +4,100 @@ import model.BasicFood;
 import model.CompositeFood;
 import model.Food;
 import model.FoodDatabase;
+import model.FoodSnapshot;
+import model.ObjectBasicFoodStore;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 public class FileManager {
-    private static final String BASIC_FOODS_FILE = "data/basic_foods.txt";
-    private static final String COMPOSITE_FOODS_FILE = "data/composite_foods.txt";
+    static final String BASIC_FOODS_FILE = "data/basic_foods.txt";
+    static final String COMPOSITE_FOODS_FILE = "data/composite_foods.txt";
+    // Smallest dependency level linked in parallel
+    private static final int PARALLEL_LEVEL_SIZE = 256;
+    static final String CATALOG_FILE = "data/food_catalog.bin";
+
+    // Loads the food database, from the binary catalog when it is at least as new
+    // as the text files, otherwise from the text files (refreshing the catalog)
+    public static void loadFoods(FoodDatabase database) {
+        // One batch: readers see the whole catalog at once, and nothing is copied per food
+        database.batch(() -> {
+            File catalogFile = new File(CATALOG_FILE);
+            long textModified = Math.max(new File(BASIC_FOODS_FILE).lastModified(),
+                    new File(COMPOSITE_FOODS_FILE).lastModified());
+            if (catalogFile.exists() && catalogFile.lastModified() >= textModified) {
+                try {
+                    loadBinaryCatalog(database, catalogFile);
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error loading food catalog, falling back to text files: " + e.getMessage());
+                    database.clearAllFoods();
+                    database.setBasicFoodStore(new ObjectBasicFoodStore());
+                }
+            }
+            loadBasicFoods(database);
+            loadCompositeFoods(database);
+            saveBinaryCatalog(database);
+        });
+    }
+
+    public static void saveBinaryCatalog(FoodDatabase database) {
+        try {
+            BinaryCatalog.write(database, new File(CATALOG_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Basic foods are served from the mapping. Composites are linked in two passes, so
+    // components may refer to composites stored later in the file, or with
+    // -Dyada.lazyComposites=true registered lazily
+    private static void loadBinaryCatalog(FoodDatabase database, File catalogFile) throws IOException {
+        BinaryCatalog catalog = BinaryCatalog.open(catalogFile);
+        MappedBasicFoodStore store = new MappedBasicFoodStore(catalog);
+        database.setBasicFoodStore(store);
+
+        if (Boolean.getBoolean("yada.lazyComposites")) {
+            database.batch(() -> registerCatalogLazily(database, catalog));
+            return;
+        }
+
+        CompositeFood[] composites = new CompositeFood[catalog.getCompositeCount()];
+        for (int i = 0; i < composites.length; i++) {
+            composites[i] = new CompositeFood(catalog.getCompositeIdentifier(i), catalog.getCompositeKeywords(i));
+        }
+        for (int i = 0; i < composites.length; i++) {
+            for (int c = 0; c < catalog.getComponentCount(i); c++) {
+                int ref = catalog.getComponentRef(i, c);
+                Food component = ref >= 0 ? store.viewAt(ref) : composites[-(ref + 1)];
+                try {
+                    composites[i].addComponent(component, catalog.getComponentServings(i, c));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping component " + component.getIdentifier() + " of "
+                            + composites[i].getIdentifier() + ": " + e.getMessage());
+                }
+            }
+        }
+        for (CompositeFood composite : composites) {
+            database.addCompositeFood(composite);
+        }
+    }
 
     public static void saveBasicFoods(FoodDatabase database) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(BASIC_FOODS_FILE))) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(BASIC_FOODS_FILE, StandardCharsets.UTF_8))) {
             for (BasicFood food : database.getBasicFoods()) {
-                writer.println(
-                        food.getIdentifier() + ";" +
-                                String.join(",", food.getKeywords()) + ";" +
-                                food.getCaloriesPerServing());
+                writer.println(formatBasicFood(food));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -27,19 +105,9 @@ public class FileManager {
     }
 
     public static void saveCompositeFoods(FoodDatabase database) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(COMPOSITE_FOODS_FILE))) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(COMPOSITE_FOODS_FILE, StandardCharsets.UTF_8))) {
             for (CompositeFood food : database.getCompositeFoods()) {
-                // Format:
-                // identifier;keywords;totalCalories;component1:servings,component2:servings
-                String components = food.getComponents().stream()
-                        .map(comp -> comp.food.getIdentifier() + ":" + comp.servings)
-                        .collect(Collectors.joining(","));
-
-                writer.println(
-                        food.getIdentifier() + ";" +
-                                String.join(",", food.getKeywords()) + ";" +
-                                food.getCaloriesPerServing() + ";" +
-                                components);
+                writer.println(formatCompositeFood(food));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -47,57 +115,348 @@ public class FileManager {
     }
 
     public static void loadBasicFoods(FoodDatabase database) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(BASIC_FOODS_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(";");
-                if (parts.length == 3) {
-                    BasicFood food = new BasicFood(
-                            parts[0],
-                            Arrays.asList(parts[1].split(",")),
-                            Double.parseDouble(parts[2]));
+        try {
+            // Parsed in parallel chunks, added in file order
+            List<BasicFood> foods = ChunkedTextParser.parse(new File(BASIC_FOODS_FILE), ';',
+                    line -> line.fieldCount() == 3
+                            ? new BasicFood(line.getString(0), Arrays.asList(line.getString(1).split(",")),
+                                    line.getDouble(2))
+                            : null);
+            database.batch(() -> {
+                for (BasicFood food : foods) {
                     database.addBasicFood(food);
                 }
-            }
+            });
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    // Lazy composites resolve their components against the version they are published
+    // in (the one this batch builds), never a later one. The catalog is a consistent
+    // snapshot, so its stored calories are trusted.
+    private static void registerCatalogLazily(FoodDatabase database, BinaryCatalog catalog) {
+        CompositeFood.LazyLoad load = new CompositeFood.LazyLoad(database.snapshot()::findFoodByIdentifier);
+        for (int i = 0; i < catalog.getCompositeCount(); i++) {
+            int composite = i;
+            List<String> componentIds = new AbstractList<String>() {
+                @Override
+                public String get(int c) {
+                    int ref = catalog.getComponentRef(composite, c);
+                    return ref >= 0 ? catalog.getBasicIdentifier(ref) : catalog.getCompositeIdentifier(-(ref + 1));
+                }
+
+                @Override
+                public int size() {
+                    return catalog.getComponentCount(composite);
+                }
+            };
+            double[] servings = new double[componentIds.size()];
+            for (int c = 0; c < servings.length; c++) {
+                servings[c] = catalog.getComponentServings(i, c);
+            }
+            database.addCompositeFood(new CompositeFood(catalog.getCompositeIdentifier(i),
+                    catalog.getCompositeKeywords(i), catalog.getStoredCompositeCalories(i),
+                    componentIds, servings, load));
+        }
+    }
+
+    // Two-phase load: records are parsed in parallel, then linked in dependency order
+    // (level by level, each level in parallel), so a composite may use composites
+    // defined later in the file. Composites are added to the database in file order.
     public static void loadCompositeFoods(FoodDatabase database) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(COMPOSITE_FOODS_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(";");
-                if (parts.length >= 3) {
-                    // Create composite food
-                    CompositeFood compositeFood = new CompositeFood(
-                            parts[0],
-                            Arrays.asList(parts[1].split(",")));
-
-                    // Add components if available
-                    if (parts.length == 4) {
-                        String[] componentParts = parts[3].split(",");
-                        for (String componentPart : componentParts) {
-                            String[] comp = componentPart.split(":");
-                            if (comp.length == 2) {
-                                String componentId = comp[0];
-                                double servings = Double.parseDouble(comp[1]);
-
-                                // Find the component food
-                                Food componentFood = database.findFoodByIdentifier(componentId);
-                                if (componentFood != null) {
-                                    compositeFood.addComponent(componentFood, servings);
-                                }
-                            }
+        boolean lazy = Boolean.getBoolean("yada.lazyComposites");
+        // Lazy composites resolve against the version the batch below publishes, not the
+        // live one, so a published version never changes under its readers
+        FoodSnapshot[] owner = new FoodSnapshot[1];
+        CompositeFood.LazyLoad load = new CompositeFood.LazyLoad(
+                identifier -> owner[0].findFoodByIdentifier(identifier));
+        CompositeRecord[] records;
+        try {
+            records = ChunkedTextParser.parse(new File(COMPOSITE_FOODS_FILE), ';',
+                    line -> parseCompositeRecord(line, lazy ? load : null)).toArray(new CompositeRecord[0]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Map<String, Integer> recordIndexes = new HashMap<>();
+        for (int i = 0; i < records.length; i++) {
+            if (records[i] != null && recordIndexes.putIfAbsent(records[i].food.getIdentifier(), i) != null) {
+                System.err.println("Skipping duplicate composite food " + records[i].food.getIdentifier());
+                records[i] = null;
+            }
+        }
+        if (lazy) {
+            database.batch(() -> {
+                owner[0] = database.snapshot();
+                registerLazily(database, records, recordIndexes);
+            });
+            return;
+        }
+
+        linkRecords(database, records, recordIndexes);
+        database.batch(() -> {
+            for (CompositeRecord record : records) {
+                if (record != null) {
+                    database.addCompositeFood(record.food);
+                }
+            }
+        });
+    }
+
+    // Composite food lines (e.g. journal records) parsed and linked like
+    // composite_foods.txt, so a composite may use one defined in a later line. The
+    // last line for an identifier wins. The composites are returned in order of
+    // their first line, not yet added to the database.
+    static List<CompositeFood> parseCompositeFoods(List<String> lines, FoodDatabase database) {
+        byte[] text = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+        List<CompositeRecord> parsed = ChunkedTextParser.parse(ByteBuffer.wrap(text), ';',
+                line -> parseCompositeRecord(line, null));
+        Map<String, CompositeRecord> latest = new LinkedHashMap<>();
+        for (CompositeRecord record : parsed) {
+            if (record != null) {
+                latest.put(record.food.getIdentifier(), record);
+            }
+        }
+        CompositeRecord[] records = latest.values().toArray(new CompositeRecord[0]);
+        Map<String, Integer> recordIndexes = new HashMap<>();
+        for (int i = 0; i < records.length; i++) {
+            recordIndexes.put(records[i].food.getIdentifier(), i);
+        }
+        linkRecords(database, records, recordIndexes);
+        List<CompositeFood> foods = new ArrayList<>(records.length);
+        for (CompositeRecord record : records) {
+            foods.add(record.food);
+        }
+        return foods;
+    }
+
+    // Resolves and links the components of the records, dependencies first; basic
+    // foods take precedence over composites, as in findFoodByIdentifier, and other
+    // records over composites already in the database
+    private static void linkRecords(FoodDatabase database, CompositeRecord[] records,
+            Map<String, Integer> recordIndexes) {
+        int[] pendingDependencies = new int[records.length];
+        List<List<Integer>> dependents = new ArrayList<>(records.length);
+        for (int i = 0; i < records.length; i++) {
+            dependents.add(new ArrayList<>());
+        }
+        for (int i = 0; i < records.length; i++) {
+            CompositeRecord record = records[i];
+            if (record == null) {
+                continue;
+            }
+            record.components = new Food[record.componentIds.length];
+            for (int c = 0; c < record.componentIds.length; c++) {
+                String componentId = record.componentIds[c];
+                Food component = database.getBasicFood(componentId);
+                if (component == null) {
+                    Integer index = recordIndexes.get(componentId);
+                    if (index != null) {
+                        component = records[index].food;
+                        if (dependents.get(index).isEmpty() || dependents.get(index).get(dependents.get(index).size() - 1) != i) {
+                            dependents.get(index).add(i);
+                            pendingDependencies[i]++;
                         }
+                    } else {
+                        component = database.getCompositeFood(componentId);
                     }
+                }
+                record.components[c] = component;
+            }
+        }
 
-                    database.addCompositeFood(compositeFood);
+        // Kahn's algorithm, one level at a time
+        List<Integer> level = new ArrayList<>();
+        for (int i = 0; i < records.length; i++) {
+            if (records[i] != null && pendingDependencies[i] == 0) {
+                level.add(i);
+            }
+        }
+        boolean[] linked = new boolean[records.length];
+        while (!level.isEmpty()) {
+            // Within a level no composite uses another, so each links independently
+            Stream<Integer> members = level.size() >= PARALLEL_LEVEL_SIZE ? level.parallelStream() : level.stream();
+            members.forEach(i -> linkComponents(records[i]));
+            List<Integer> next = new ArrayList<>();
+            for (int i : level) {
+                linked[i] = true;
+                for (int dependent : dependents.get(i)) {
+                    if (--pendingDependencies[dependent] == 0) {
+                        next.add(dependent);
+                    }
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            level = next;
+        }
+
+        // Whatever is left is on a cycle or depends on one; addComponent drops the edges that close cycles
+        List<String> cyclic = new ArrayList<>();
+        for (int i = 0; i < records.length; i++) {
+            if (records[i] != null && !linked[i]) {
+                cyclic.add(records[i].food.getIdentifier());
+            }
+        }
+        if (!cyclic.isEmpty()) {
+            System.err.println("Composite foods in or depending on a cycle: " + String.join(", ", cyclic));
+            for (int i = 0; i < records.length; i++) {
+                if (records[i] != null && !linked[i]) {
+                    linkComponents(records[i]);
+                }
+            }
+        }
+    }
+
+    // Lazy mode (-Dyada.lazyComposites=true; by default everything is linked up front):
+    // composites are registered with the calories stored in field 3 and resolve their
+    // components on first use. A stored value is only trusted if the checksum matches
+    // the component list and the calories its components have now; otherwise the
+    // composite and everything using it are recomputed on demand.
+    private static void registerLazily(FoodDatabase database, CompositeRecord[] records,
+            Map<String, Integer> recordIndexes) {
+        for (CompositeRecord record : records) {
+            if (record != null) {
+                database.addCompositeFood(record.food);
+            }
+        }
+        for (CompositeRecord record : records) {
+            if (record == null || record.checksum == null) {
+                if (record != null) {
+                    database.markStale(record.food.getIdentifier());
+                }
+                continue;
+            }
+            double[] componentCalories = new double[record.componentIds.length];
+            for (int c = 0; c < componentCalories.length; c++) {
+                BasicFood basic = database.getBasicFood(record.componentIds[c]);
+                Integer index = recordIndexes.get(record.componentIds[c]);
+                componentCalories[c] = basic != null ? basic.getCaloriesPerServing()
+                        : index != null ? records[index].storedCalories : Double.NaN;
+            }
+            if (!record.checksum.equals(compositeChecksum(record.componentsField, record.storedCalories, componentCalories))) {
+                database.markStale(record.food.getIdentifier());
+            }
+        }
+    }
+
+    // With a lazy load, the composite is created lazily, resolving components with it;
+    // lines with malformed components are reported and skipped
+    private static CompositeRecord parseCompositeRecord(ChunkedTextParser.Line line,
+            CompositeFood.LazyLoad load) {
+        int fieldCount = line.fieldCount();
+        if (fieldCount < 3) {
+            return null;
+        }
+        CompositeRecord record = new CompositeRecord();
+        List<String> componentIds = new ArrayList<>();
+        List<Double> servings = new ArrayList<>();
+        record.componentsField = fieldCount >= 4 ? line.getString(3) : "";
+        record.checksum = fieldCount >= 5 ? line.getString(4) : null;
+        try {
+            record.storedCalories = line.getDouble(2);
+        } catch (NumberFormatException e) {
+            record.storedCalories = Double.NaN;
+            record.checksum = null;
+        }
+        try {
+            if (!record.componentsField.isEmpty()) {
+                for (String componentPart : record.componentsField.split(",")) {
+                    String[] comp = componentPart.split(":");
+                    if (comp.length == 2) {
+                        componentIds.add(comp[0]);
+                        servings.add(Double.parseDouble(comp[1]));
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Skipping composite food line " + line.getLine() + ": " + e.getMessage());
+            return null;
+        }
+        record.componentIds = componentIds.toArray(new String[0]);
+        record.servings = servings.stream().mapToDouble(Double::doubleValue).toArray();
+        String identifier = line.getString(0);
+        List<String> keywords = Arrays.asList(line.getString(1).split(","));
+        record.food = load == null
+                ? new CompositeFood(identifier, keywords)
+                : new CompositeFood(identifier, keywords, record.storedCalories,
+                        Arrays.asList(record.componentIds), record.servings, load);
+        return record;
+    }
+
+    private static void linkComponents(CompositeRecord record) {
+        for (int c = 0; c < record.components.length; c++) {
+            Food component = record.components[c];
+            if (component == null) {
+                continue; // Unknown food, skipped as before
+            }
+            try {
+                record.food.addComponent(component, record.servings[c]);
+            } catch (IllegalArgumentException e) {
+                // Cyclic or too deeply nested recipe; skip the component
+                System.err.println("Skipping component " + record.componentIds[c] + " of "
+                        + record.food.getIdentifier() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // A parsed composite_foods.txt line; components are resolved before linking
+    private static class CompositeRecord {
+        CompositeFood food;
+        String componentsField;
+        double storedCalories;
+        String checksum;
+        String[] componentIds;
+        double[] servings;
+        Food[] components;
+    }
+
+    // Format: identifier;keywords;caloriesPerServing
+    static String formatBasicFood(BasicFood food) {
+        return food.getIdentifier() + ";" +
+                String.join(",", food.getKeywords()) + ";" +
+                food.getCaloriesPerServing();
+    }
+
+    static String formatCompositeFood(CompositeFood food) {
+        // Format:
+        // identifier;keywords;totalCalories;component1:servings,component2:servings;checksum
+        List<CompositeFood.FoodServing> servings = food.getComponents();
+        String components = servings.stream()
+                .map(comp -> comp.food.getIdentifier() + ":" + comp.servings)
+                .collect(Collectors.joining(","));
+        double[] componentCalories = servings.stream()
+                .mapToDouble(comp -> comp.food.getCaloriesPerServing())
+                .toArray();
+        double calories = food.getCaloriesPerServing();
+
+        return food.getIdentifier() + ";" +
+                String.join(",", food.getKeywords()) + ";" +
+                calories + ";" +
+                components + ";" +
+                compositeChecksum(components, calories, componentCalories);
+    }
+
+    // CRC32 over the component list, the stored total and the calories of each
+    // component at the time of writing, so edits to any of them are detected
+    static String compositeChecksum(String components, double calories, double[] componentCalories) {
+        CRC32 crc = new CRC32();
+        crc.update(components.getBytes(StandardCharsets.UTF_8));
+        crc.update(Double.toString(calories).getBytes(StandardCharsets.UTF_8));
+        for (double componentCalorie : componentCalories) {
+            crc.update(Double.toString(componentCalorie).getBytes(StandardCharsets.UTF_8));
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    // Returns null for a malformed line
+    static BasicFood parseBasicFood(String line) {
+        String[] parts = line.split(";");
+        if (parts.length != 3) {
+            return null;
         }
+        return new BasicFood(
+                parts[0],
+                Arrays.asList(parts[1].split(",")),
+                Double.parseDouble(parts[2]));
     }
-}
\ No newline at end of file
+}
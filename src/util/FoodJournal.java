@@ -0,0 +1,349 @@
+package util;
+
+import model.BasicFood;
+import model.CompositeFood;
+import model.Food;
+import model.FoodDatabase;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Append-only journal of food database mutations. Every added or replaced food is
+// one line, so nothing is lost between saves and the cost of a save is one record.
+// Records are queued and written by a background thread, like GroupCommitWriter:
+// one write and one sync for all records queued within -Dyada.journalFlushMillis
+// of the first (default 200), so mutations never wait on the disk. On startup the
+// journal is replayed over the base files; a background task periodically folds
+// it back into them.
+//
+// Record format: "B;" + basic food line or "C;" + composite food line, in the
+// same format as the base files. Replaying a record upserts the food by
+// identifier, so replaying a record more than once is harmless.
+public class FoodJournal implements FoodDatabase.MutationListener {
+    static final String JOURNAL_FILE = "data/food_journal.log";
+
+    private final FoodDatabase database;
+    private final File journalFile;
+    private final File compactingFile;
+    private final long flushMillis = Long.getLong("yada.journalFlushMillis", 200);
+
+    // Guarded by this: records waiting for the next write
+    private List<String> queued = new ArrayList<>();
+    private boolean scheduled;
+
+    // Guarded by fileLock: the open journal and the records written to it
+    private final Object fileLock = new Object();
+    private FileOutputStream out;
+    private int pendingRecords;
+
+    // Compactor thread only: set once a fold reached the base files, until the
+    // catalog has been rewritten from them
+    private boolean catalogStale;
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "food-journal-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "food-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FoodJournal(FoodDatabase database, File journalFile) throws IOException {
+        this.database = database;
+        this.journalFile = journalFile;
+        this.compactingFile = new File(journalFile.getPath() + ".compacting");
+        this.out = new FileOutputStream(journalFile, true);
+    }
+
+    // Replays the journal into the database (already loaded from the base files),
+    // then records further mutations. -Dyada.journalCompactSeconds sets how often
+    // the journal is folded into the base files (default 300).
+    public static FoodJournal open(FoodDatabase database) throws IOException {
+        File journalFile = new File(JOURNAL_FILE);
+        FoodJournal journal = new FoodJournal(database, journalFile);
+        // A fold interrupted by a crash leaves its records behind; they go first
+        if (journal.compactingFile.exists()) {
+            journal.replay(journal.compactingFile);
+        }
+        journal.pendingRecords = journal.replay(journalFile);
+        database.addMutationListener(journal);
+
+        long interval = Long.getLong("yada.journalCompactSeconds", 300);
+        journal.compactor.scheduleWithFixedDelay(journal::compactQuietly, interval, interval, TimeUnit.SECONDS);
+        if (journal.compactingFile.exists()) {
+            journal.compactNow();
+        }
+        return journal;
+    }
+
+    @Override
+    public void foodChanged(Food food) {
+        String record = food instanceof CompositeFood
+                ? "C;" + FileManager.formatCompositeFood((CompositeFood) food)
+                : "B;" + FileManager.formatBasicFood((BasicFood) food);
+        enqueue(record);
+    }
+
+    private synchronized void enqueue(String record) {
+        queued.add(record);
+        if (!scheduled) {
+            scheduled = true;
+            writer.schedule(this::writeQuietly, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Blocks until every record queued before the call is synced
+    public void flush() throws IOException {
+        try {
+            writer.submit(() -> {
+                write();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing the food journal", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException e) {
+            System.err.println("Error writing food journal, will retry: " + e.getMessage());
+        }
+    }
+
+    // Runs on the writer thread. Records queued while a batch is written wait for
+    // the next one; a batch that fails goes back ahead of them and is retried.
+    private void write() throws IOException {
+        List<String> batch;
+        synchronized (this) {
+            scheduled = false;
+            if (queued.isEmpty()) {
+                return;
+            }
+            batch = queued;
+            queued = new ArrayList<>();
+        }
+        StringBuilder text = new StringBuilder();
+        for (String record : batch) {
+            text.append(record).append(System.lineSeparator());
+        }
+        try {
+            synchronized (fileLock) {
+                out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+                out.getChannel().force(false);
+                pendingRecords += batch.size();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                // Replaying a record twice is harmless if part of the batch was written
+                batch.addAll(queued);
+                queued = batch;
+                if (!scheduled) {
+                    scheduled = true;
+                    writer.schedule(this::writeQuietly, flushMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            throw e;
+        }
+    }
+
+    // Folds the journal into the base files and refreshes the binary catalog on the
+    // compactor thread; the future fails with the cause if either could not be written
+    public Future<?> compactNow() {
+        return compactor.submit(() -> {
+            compact();
+            return null;
+        });
+    }
+
+    // Writes the queued records, stops background compaction and closes the journal
+    public void close() {
+        database.removeMutationListener(this);
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Error writing food journal on close: " + e.getMessage());
+        }
+        writer.shutdown();
+        synchronized (fileLock) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private int replay(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        // Applied as one batch, so the replayed state is published once. Basic foods go
+        // first; composites are then linked together like composite_foods.txt, so a
+        // composite record may use a composite journaled after it.
+        int[] records = { 0 };
+        database.batch(() -> {
+            List<String> compositeLines = new ArrayList<>();
+            for (String line : lines) {
+                if (line.startsWith("C;")) {
+                    compositeLines.add(line.substring(2));
+                    continue;
+                }
+                try {
+                    BasicFood food = line.startsWith("B;") ? FileManager.parseBasicFood(line.substring(2)) : null;
+                    if (food != null) {
+                        upsert(food, database.getBasicFood(food.getIdentifier()) != null);
+                        records[0]++;
+                    }
+                } catch (RuntimeException e) {
+                    // E.g. a record torn by a crash while it was being written
+                    System.err.println("Skipping journal record: " + line + " (" + e.getMessage() + ")");
+                }
+            }
+            for (CompositeFood food : FileManager.parseCompositeFoods(compositeLines, database)) {
+                upsert(food, database.getCompositeFood(food.getIdentifier()) != null);
+                records[0]++;
+            }
+        });
+        return records[0];
+    }
+
+    private void upsert(Food food, boolean exists) {
+        if (exists) {
+            database.replaceFood(food);
+        } else if (food instanceof CompositeFood) {
+            database.addCompositeFood((CompositeFood) food);
+        } else {
+            database.addBasicFood((BasicFood) food);
+        }
+    }
+
+    // Moves the live journal aside, then merges it into the base files without
+    // touching the in-memory database. Records queued before it are written first;
+    // the writer only waits for the rename.
+    private void compact() throws IOException {
+        flush();
+        boolean folding = true;
+        synchronized (fileLock) {
+            if (!compactingFile.exists()) {
+                if (pendingRecords == 0) {
+                    folding = false;
+                } else {
+                    out.close();
+                    Files.move(journalFile.toPath(), compactingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    out = new FileOutputStream(journalFile, true);
+                    pendingRecords = 0;
+                }
+            }
+        }
+        if (folding) {
+            fold(compactingFile);
+            // Only dropped once both base files hold its records
+            Files.delete(compactingFile.toPath());
+            catalogStale = true;
+        }
+        // Also retried with nothing to fold if the last refresh failed. The catalog is
+        // only loaded while it is newer than the base files; the database holds at
+        // least everything folded, and replaying newer journal records over it is harmless
+        if (catalogStale) {
+            BinaryCatalog.write(database, new File(FileManager.CATALOG_FILE));
+            catalogStale = false;
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void fold(File journal) throws IOException {
+        Map<String, String> basicLines = readLines(new File(FileManager.BASIC_FOODS_FILE));
+        Map<String, String> compositeLines = readLines(new File(FileManager.COMPOSITE_FOODS_FILE));
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            String record;
+            while ((record = reader.readLine()) != null) {
+                if (record.startsWith("B;") && FileManager.parseBasicFood(record.substring(2)) != null) {
+                    String line = record.substring(2);
+                    basicLines.put(identifier(line), line);
+                } else if (record.startsWith("C;") && record.split(";").length >= 4) {
+                    String line = record.substring(2);
+                    compositeLines.put(identifier(line), line);
+                }
+            }
+        }
+        writeLines(new File(FileManager.BASIC_FOODS_FILE), basicLines);
+        writeLines(new File(FileManager.COMPOSITE_FOODS_FILE), compositeLines);
+    }
+
+    // Base file lines by identifier, in file order
+    private static Map<String, String> readLines(File file) throws IOException {
+        Map<String, String> lines = new LinkedHashMap<>();
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        lines.put(identifier(line), line);
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static void writeLines(File file, Map<String, String> lines) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            for (String line : lines.values()) {
+                writer.println(line);
+            }
+            writer.flush();
+            stream.getChannel().force(false);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String identifier(String line) {
+        int end = line.indexOf(';');
+        return end < 0 ? line : line.substring(0, end);
+    }
+}
@@ -0,0 +1,136 @@
+package util;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Writes records to a SegmentedLogStore in the background, so callers on the UI
+// thread never wait on disk. Enqueued payloads are coalesced by kind and date (only
+// the latest version of a date is written) and written as one batch with a single
+// sync, -Dyada.logFlushMillis after the first change of a batch (default 200).
+// -Dyada.logFsync=none leaves durability to the OS cache instead of syncing every
+// batch. A batch that fails to write is kept and retried with the next one.
+//
+// Until its batch is written, a payload is answered by pending(), so readers see
+// their own writes; flush() is a barrier for shutdown and tests.
+public class GroupCommitWriter {
+    private final SegmentedLogStore store;
+    private final long flushMillis = Long.getLong("yada.logFlushMillis", 200);
+    private final boolean sync = !"none".equals(System.getProperty("yada.logFsync", "batch"));
+
+    // Guarded by this: payloads waiting for the next batch, and the batch being written
+    private Map<Byte, Map<LocalDate, byte[]>> pending = new HashMap<>();
+    private Map<Byte, Map<LocalDate, byte[]>> writing = new HashMap<>();
+    private boolean scheduled;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "daily-log-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public GroupCommitWriter(SegmentedLogStore store) {
+        this.store = store;
+    }
+
+    // Queues the payload as the new version of the date's record, replacing any
+    // version of it still waiting
+    public synchronized void enqueue(byte kind, LocalDate date, byte[] payload) {
+        pending.computeIfAbsent(kind, k -> new LinkedHashMap<>()).put(date, payload);
+        if (!scheduled) {
+            scheduled = true;
+            flusher.schedule(this::writeQuietly, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // The latest payload of the date not yet written to the store, or null
+    public synchronized byte[] pending(byte kind, LocalDate date) {
+        byte[] payload = pending.getOrDefault(kind, Map.of()).get(date);
+        return payload != null ? payload : writing.getOrDefault(kind, Map.of()).get(date);
+    }
+
+    public synchronized boolean isPending(byte kind, LocalDate date) {
+        return pending(kind, date) != null;
+    }
+
+    // Dates of this kind with a payload not yet written to the store
+    public synchronized Iterable<LocalDate> pendingDates(byte kind) {
+        LinkedHashMap<LocalDate, byte[]> dates = new LinkedHashMap<>(writing.getOrDefault(kind, Map.of()));
+        dates.putAll(pending.getOrDefault(kind, Map.of()));
+        return dates.keySet();
+    }
+
+    // Blocks until everything enqueued before the call is in the store
+    public void flush() throws IOException {
+        try {
+            flusher.submit(() -> {
+                write();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing daily logs", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    // Flushes and stops the background thread
+    public void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Error writing daily logs on close: " + e.getMessage());
+        }
+        flusher.shutdown();
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException e) {
+            System.err.println("Error writing daily logs, will retry: " + e.getMessage());
+        }
+    }
+
+    // Runs on the flusher thread. Payloads enqueued while the batch is written wait
+    // for the next one.
+    private void write() throws IOException {
+        Map<Byte, Map<LocalDate, byte[]>> batch;
+        synchronized (this) {
+            scheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            writing = batch;
+            pending = new HashMap<>();
+        }
+        try {
+            store.writeAll(batch, sync);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                // Newer versions enqueued meanwhile win over the failed ones
+                for (Map.Entry<Byte, Map<LocalDate, byte[]>> kind : batch.entrySet()) {
+                    Map<LocalDate, byte[]> dates = pending.computeIfAbsent(kind.getKey(), k -> new LinkedHashMap<>());
+                    kind.getValue().forEach(dates::putIfAbsent);
+                }
+                writing = new HashMap<>();
+                if (!scheduled) {
+                    scheduled = true;
+                    flusher.schedule(this::writeQuietly, flushMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            writing = new HashMap<>();
+        }
+    }
+}
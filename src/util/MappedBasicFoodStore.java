@@ -0,0 +1,138 @@
+package util;
+
+import model.BasicFood;
+import model.BasicFoodStore;
+import model.KeywordDictionary;
+import model.ObjectBasicFoodStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Basic food store served straight from a memory-mapped BinaryCatalog. Nothing is
+// materialized up front: lookups probe the catalog's hash table and return views
+// that read their fields from the mapping. Foods added or replaced after loading
+// live in an in-heap overlay that takes precedence over the catalog.
+public class MappedBasicFoodStore implements BasicFoodStore {
+    private BinaryCatalog catalog;
+    private final ObjectBasicFoodStore overlay;
+
+    public MappedBasicFoodStore(BinaryCatalog catalog) {
+        this(catalog, new ObjectBasicFoodStore());
+    }
+
+    private MappedBasicFoodStore(BinaryCatalog catalog, ObjectBasicFoodStore overlay) {
+        this.catalog = catalog;
+        this.overlay = overlay;
+    }
+
+    // View of the catalog's basic food at this index, without an identifier lookup
+    public BasicFood viewAt(int index) {
+        return new MappedFood(index);
+    }
+
+    @Override
+    public void add(BasicFood food) {
+        overlay.add(food);
+    }
+
+    @Override
+    public void replace(BasicFood food) {
+        overlay.replace(food);
+    }
+
+    @Override
+    public BasicFood get(String identifier) {
+        BasicFood food = overlay.get(identifier);
+        if (food != null || catalog == null) {
+            return food;
+        }
+        int index = catalog.findBasic(identifier);
+        return index < 0 ? null : new MappedFood(index);
+    }
+
+    @Override
+    public boolean contains(String identifier) {
+        return overlay.contains(identifier) || (catalog != null && catalog.findBasic(identifier) >= 0);
+    }
+
+    @Override
+    public List<BasicFood> getAll() {
+        List<BasicFood> foods = new ArrayList<>(size());
+        int catalogCount = catalog == null ? 0 : catalog.getBasicCount();
+        for (int i = 0; i < catalogCount; i++) {
+            BasicFood replaced = overlay.get(catalog.getBasicIdentifier(i));
+            foods.add(replaced != null ? replaced : new MappedFood(i));
+        }
+        for (BasicFood food : overlay.getAll()) {
+            if (catalog == null || catalog.findBasic(food.getIdentifier()) < 0) {
+                foods.add(food);
+            }
+        }
+        return foods;
+    }
+
+    @Override
+    public int size() {
+        int size = catalog == null ? 0 : catalog.getBasicCount();
+        for (BasicFood food : overlay.getAll()) {
+            if (catalog == null || catalog.findBasic(food.getIdentifier()) < 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        catalog = null;
+        overlay.clear();
+    }
+
+    // Shares the (read-only) catalog; only the overlay is copied
+    @Override
+    public MappedBasicFoodStore copy() {
+        return new MappedBasicFoodStore(catalog, overlay.copy());
+    }
+
+    // View over one catalog record; the identifier is decoded once on first use
+    private class MappedFood extends BasicFood {
+        private final BinaryCatalog source = catalog;
+        private final int index;
+        private String identifier;
+        private List<String> keywords;
+        private int[] keywordIds;
+
+        MappedFood(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getIdentifier() {
+            if (identifier == null) {
+                identifier = source.getBasicIdentifier(index);
+            }
+            return identifier;
+        }
+
+        @Override
+        public List<String> getKeywords() {
+            if (keywords == null) {
+                keywords = source.getBasicKeywords(index);
+            }
+            return keywords;
+        }
+
+        @Override
+        public int[] getKeywordIds() {
+            if (keywordIds == null) {
+                keywordIds = KeywordDictionary.getInstance().internAll(getKeywords());
+            }
+            return keywordIds;
+        }
+
+        @Override
+        public double getCaloriesPerServing() {
+            return source.getBasicCalories(index);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Append-only store of one record per kind and date (a day's log, a day's profile),
+// kept in a few segment files instead of one small file per day. Writing a date
+// appends a new version of its record; an in-memory index maps every date to the
+// offset of its latest version.
+//
+// Segment layout: records of
+//   int payload length, byte kind, int epoch day, long sequence, payload, int CRC32
+// The CRC covers kind through payload. Sequence numbers grow with every write, so
+// the latest version wins wherever it is. When a segment reaches the size limit it
+// is sealed: its records are listed in a .idx file next to it (kind, epoch day,
+// sequence, offset, length), so opening the store reads the index files and only
+// scans segments that were not sealed, e.g. after a crash. A record torn by a
+// crash ends the scan and is cut off.
+//
+// A background task rewrites sealed segments that are at least half superseded
+// versions, and merges small ones (e.g. one per session), ordering the live records
+// by kind and date so that reading a range of dates is sequential I/O. Full, mostly
+// live segments are left alone, and a run rewrites at most a few segments' worth.
+public class SegmentedLogStore {
+    public static final byte LOG = 1;
+    public static final byte PROFILE = 2;
+
+    private static final int HEADER_SIZE = 17;
+    private static final int TRAILER_SIZE = 4;
+    // Most segments a compaction writes, bounding the work of one run
+    private static final int MAX_OUTPUT_SEGMENTS = 4;
+    // Adjacent records are read with one read of up to this many bytes
+    private static final int MAX_RUN_BYTES = 1 << 20;
+
+    private final File directory;
+    private final long segmentBytes = Long.getLong("yada.logSegmentBytes", 4 << 20);
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<Byte, NavigableMap<LocalDate, Record>> index = new HashMap<>();
+    private Segment active;
+    private int nextSegmentId = 1;
+    private long nextSequence = 1;
+
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "daily-log-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Segment {
+        final int id;
+        File file;
+        final FileChannel channel;
+        long size;
+        long liveBytes;
+        boolean sealed;
+        // Records written to the active segment, for its index file
+        final List<Record> records = new ArrayList<>();
+
+        Segment(int id, File file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        File indexFile() {
+            return new File(file.getPath().replace(".dat", ".idx"));
+        }
+    }
+
+    private static class Record {
+        final byte kind;
+        final int epochDay;
+        final long sequence;
+        final Segment segment;
+        final long offset;
+        final int length;
+
+        Record(byte kind, int epochDay, long sequence, Segment segment, long offset, int length) {
+            this.kind = kind;
+            this.epochDay = epochDay;
+            this.sequence = sequence;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        int recordSize() {
+            return HEADER_SIZE + length + TRAILER_SIZE;
+        }
+    }
+
+    private SegmentedLogStore(File directory) {
+        this.directory = directory;
+        index.put(LOG, new TreeMap<>());
+        index.put(PROFILE, new TreeMap<>());
+    }
+
+    // Opens (or creates) the store in the directory. -Dyada.logSegmentBytes sets the
+    // segment size (default 4 MB), -Dyada.logCompactSeconds how often sealed segments
+    // are checked for compaction (default 300).
+    public static SegmentedLogStore open(File directory) throws IOException {
+        directory.mkdirs();
+        SegmentedLogStore store = new SegmentedLogStore(directory);
+        store.load();
+        long interval = Long.getLong("yada.logCompactSeconds", 300);
+        store.compactor.scheduleWithFixedDelay(store::compact, interval, interval, TimeUnit.SECONDS);
+        return store;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private void load() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        TreeMap<Integer, File> dataFiles = new TreeMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".tmp")) {
+                // Left by a compaction interrupted before it was complete
+                Files.delete(file.toPath());
+            } else if (name.startsWith("segment-") && name.endsWith(".dat")) {
+                dataFiles.put(Integer.parseInt(name.substring(8, name.length() - 4)), file);
+            }
+        }
+        for (Map.Entry<Integer, File> entry : dataFiles.entrySet()) {
+            Segment segment = new Segment(entry.getKey(), entry.getValue(),
+                    FileChannel.open(entry.getValue().toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.put(segment.id, segment);
+            nextSegmentId = segment.id + 1;
+            List<Record> records = segment.indexFile().exists() ? readIndex(segment) : scan(segment);
+            for (Record record : records) {
+                apply(record);
+            }
+            if (!segment.sealed) {
+                segment.records.addAll(records);
+                seal(segment);
+            }
+        }
+        for (File file : files) {
+            // An index file whose segment was deleted by a compaction
+            if (file.getName().endsWith(".idx")
+                    && !new File(file.getPath().replace(".idx", ".dat")).exists()) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    private List<Record> readIndex(Segment segment) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(segment.indexFile())))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte kind = in.readByte();
+                int epochDay = in.readInt();
+                long sequence = in.readLong();
+                long offset = in.readLong();
+                int length = in.readInt();
+                records.add(new Record(kind, epochDay, sequence, segment, offset, length));
+            }
+        }
+        segment.size = segment.channel.size();
+        segment.sealed = true;
+        return records;
+    }
+
+    // Reads the records of a segment without an index file, cutting off a torn tail
+    private List<Record> scan(Segment segment) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long fileSize = segment.channel.size();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(segment.file)))) {
+            while (offset + HEADER_SIZE + TRAILER_SIZE <= fileSize) {
+                int length = in.readInt();
+                byte kind = in.readByte();
+                int epochDay = in.readInt();
+                long sequence = in.readLong();
+                if (length < 0 || offset + HEADER_SIZE + length + TRAILER_SIZE > fileSize) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (in.readInt() != checksum(kind, epochDay, sequence, payload)) {
+                    break;
+                }
+                Record record = new Record(kind, epochDay, sequence, segment, offset, length);
+                records.add(record);
+                offset += record.recordSize();
+            }
+        }
+        if (offset < fileSize) {
+            System.err.println("Truncating torn records at " + offset + " in " + segment.file.getName());
+            segment.channel.truncate(offset);
+        }
+        segment.size = offset;
+        return records;
+    }
+
+    // Makes the record the current version of its date if it is the latest one
+    private boolean apply(Record record) {
+        NavigableMap<LocalDate, Record> dates = index.get(record.kind);
+        if (dates == null) {
+            return false; // Kind written by a newer version
+        }
+        nextSequence = Math.max(nextSequence, record.sequence + 1);
+        LocalDate date = LocalDate.ofEpochDay(record.epochDay);
+        Record current = dates.get(date);
+        if (current != null && current.sequence >= record.sequence) {
+            return false;
+        }
+        dates.put(date, record);
+        record.segment.liveBytes += record.recordSize();
+        if (current != null) {
+            current.segment.liveBytes -= current.recordSize();
+        }
+        return true;
+    }
+
+    // Dates that have a record of this kind
+    public synchronized NavigableSet<LocalDate> dates(byte kind) {
+        return new TreeSet<>(index.get(kind).navigableKeySet());
+    }
+
+    public synchronized boolean contains(byte kind, LocalDate date) {
+        return index.get(kind).containsKey(date);
+    }
+
+    // The payload of the latest record for the date, or null if there is none
+    public synchronized ByteBuffer read(byte kind, LocalDate date) throws IOException {
+        Record record = index.get(kind).get(date);
+        return record == null ? null : readRun(List.of(record)).get(0);
+    }
+
+    // Payloads of every date in [from, to] that has a record, by date. Records are
+    // read in file order, adjacent ones with a single read.
+    public synchronized NavigableMap<LocalDate, ByteBuffer> readRange(byte kind, LocalDate from, LocalDate to)
+            throws IOException {
+        List<Record> records = new ArrayList<>(index.get(kind).subMap(from, true, to, true).values());
+        records.sort(Comparator.comparingInt((Record r) -> r.segment.id).thenComparingLong(r -> r.offset));
+        NavigableMap<LocalDate, ByteBuffer> payloads = new TreeMap<>();
+        int start = 0;
+        while (start < records.size()) {
+            int end = start + 1;
+            long runBytes = records.get(start).recordSize();
+            while (end < records.size()) {
+                Record previous = records.get(end - 1);
+                Record next = records.get(end);
+                if (next.segment != previous.segment || next.offset != previous.offset + previous.recordSize()
+                        || runBytes + next.recordSize() > MAX_RUN_BYTES) {
+                    break;
+                }
+                runBytes += next.recordSize();
+                end++;
+            }
+            List<Record> run = records.subList(start, end);
+            List<ByteBuffer> runPayloads = readRun(run);
+            for (int i = 0; i < run.size(); i++) {
+                payloads.put(LocalDate.ofEpochDay(run.get(i).epochDay), runPayloads.get(i));
+            }
+            start = end;
+        }
+        return payloads;
+    }
+
+    // Reads adjacent records of one segment with a single read, returning their payloads
+    private static List<ByteBuffer> readRun(List<Record> run) throws IOException {
+        Record first = run.get(0);
+        Record last = run.get(run.size() - 1);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (last.offset + last.recordSize() - first.offset));
+        readFully(first.segment.channel, buffer, first.offset);
+        List<ByteBuffer> payloads = new ArrayList<>(run.size());
+        for (Record record : run) {
+            int start = (int) (record.offset - first.offset) + HEADER_SIZE;
+            payloads.add(buffer.duplicate().position(start).limit(start + record.length).slice());
+        }
+        return payloads;
+    }
+
+    // Appends a new version of the date's record and syncs it
+    public synchronized void write(byte kind, LocalDate date, byte[] payload) throws IOException {
+        append(kind, date, payload);
+        active.channel.force(false);
+    }
+
+    // Appends a batch of records, by kind and date, with at most one sync for all of
+    // them (group commit). Without sync the records are only as durable as the OS
+    // cache; a crash may lose a suffix of the batch, never part of a record.
+    public synchronized void writeAll(Map<Byte, ? extends Map<LocalDate, byte[]>> batch, boolean sync)
+            throws IOException {
+        for (Map.Entry<Byte, ? extends Map<LocalDate, byte[]>> kind : batch.entrySet()) {
+            for (Map.Entry<LocalDate, byte[]> entry : kind.getValue().entrySet()) {
+                append(kind.getKey(), entry.getKey(), entry.getValue());
+            }
+        }
+        if (sync && active != null) {
+            active.channel.force(false);
+        }
+    }
+
+    private void append(byte kind, LocalDate date, byte[] payload) throws IOException {
+        if (!index.containsKey(kind)) {
+            throw new IllegalArgumentException("Unknown record kind: " + kind);
+        }
+        int recordSize = HEADER_SIZE + payload.length + TRAILER_SIZE;
+        if (active == null || (active.size > 0 && active.size + recordSize > segmentBytes)) {
+            roll();
+        }
+        long sequence = nextSequence++;
+        int epochDay = (int) date.toEpochDay();
+        ByteBuffer buffer = ByteBuffer.allocate(recordSize);
+        buffer.putInt(payload.length).put(kind).putInt(epochDay).putLong(sequence).put(payload)
+                .putInt(checksum(kind, epochDay, sequence, payload)).flip();
+        writeFully(active.channel, buffer, active.size);
+        Record record = new Record(kind, epochDay, sequence, active, active.size, payload.length);
+        active.size += recordSize;
+        active.records.add(record);
+        apply(record);
+    }
+
+    // Seals the active segment, if any, and starts a new one
+    private void roll() throws IOException {
+        if (active != null) {
+            seal(active);
+        }
+        active = createSegment(nextSegmentId++, "");
+        segments.put(active.id, active);
+    }
+
+    private Segment createSegment(int id, String suffix) throws IOException {
+        File file = new File(directory, String.format("segment-%06d.dat", id) + suffix);
+        return new Segment(id, file, FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    // Syncs the segment and writes its index file, after which it is never written again
+    private void seal(Segment segment) throws IOException {
+        segment.channel.force(true);
+        writeIndex(segment, segment.records);
+        segment.records.clear();
+        segment.sealed = true;
+        if (segment == active) {
+            active = null;
+        }
+    }
+
+    private static void writeIndex(Segment segment, List<Record> records) throws IOException {
+        File indexFile = segment.indexFile();
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(records.size());
+            for (Record record : records) {
+                out.writeByte(record.kind);
+                out.writeInt(record.epochDay);
+                out.writeLong(record.sequence);
+                out.writeLong(record.offset);
+                out.writeInt(record.length);
+            }
+            out.flush();
+            stream.getChannel().force(false);
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Compacts sealed segments on the compactor thread
+    public Future<?> compactNow() {
+        return compactor.submit(this::compact);
+    }
+
+    // Copies the live records of the sealed segments into new segments, in kind and
+    // date order, then swaps them in. Writes only wait for the snapshot and the swap;
+    // sealed segments are never written, so they are copied without the lock.
+    private void compact() {
+        try {
+            List<Segment> sources = new ArrayList<>();
+            List<Record> live = new ArrayList<>();
+            synchronized (this) {
+                boolean reclaims = false;
+                long liveBytes = 0;
+                for (Segment segment : segments.values()) {
+                    boolean mostlyGarbage = segment.liveBytes * 2 <= segment.size;
+                    if (!segment.sealed || !(mostlyGarbage || segment.size * 2 < segmentBytes)) {
+                        continue;
+                    }
+                    if (liveBytes + segment.liveBytes > MAX_OUTPUT_SEGMENTS * segmentBytes) {
+                        break;
+                    }
+                    sources.add(segment);
+                    liveBytes += segment.liveBytes;
+                    reclaims |= mostlyGarbage;
+                }
+                // Nothing to reclaim and nothing to merge
+                if (!reclaims && sources.size() < 2) {
+                    return;
+                }
+                Set<Segment> sourceSet = new HashSet<>(sources);
+                for (NavigableMap<LocalDate, Record> dates : index.values()) {
+                    for (Record record : dates.values()) {
+                        if (sourceSet.contains(record.segment)) {
+                            live.add(record);
+                        }
+                    }
+                }
+            }
+            live.sort(Comparator.comparingInt((Record r) -> r.kind).thenComparingInt(r -> r.epochDay));
+
+            List<Segment> targets = new ArrayList<>();
+            List<Record> copies = new ArrayList<>();
+            Segment target = null;
+            for (Record record : live) {
+                if (target == null || (target.size > 0 && target.size + record.recordSize() > segmentBytes)) {
+                    if (target != null) {
+                        finishCopy(target);
+                    }
+                    synchronized (this) {
+                        target = createSegment(nextSegmentId++, ".tmp");
+                    }
+                    targets.add(target);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(record.recordSize());
+                readFully(record.segment.channel, buffer, record.offset);
+                buffer.flip();
+                writeFully(target.channel, buffer, target.size);
+                Record copy = new Record(record.kind, record.epochDay, record.sequence, target, target.size,
+                        record.length);
+                target.size += record.recordSize();
+                target.records.add(copy);
+                copies.add(copy);
+            }
+            if (target != null) {
+                finishCopy(target);
+            }
+
+            synchronized (this) {
+                for (int i = 0; i < copies.size(); i++) {
+                    Record copy = copies.get(i);
+                    NavigableMap<LocalDate, Record> dates = index.get(copy.kind);
+                    LocalDate date = LocalDate.ofEpochDay(copy.epochDay);
+                    // Unless the date was written again meanwhile
+                    if (dates.get(date) == live.get(i)) {
+                        dates.put(date, copy);
+                        copy.segment.liveBytes += copy.recordSize();
+                    }
+                }
+                for (Segment segment : targets) {
+                    segments.put(segment.id, segment);
+                }
+                for (Segment segment : sources) {
+                    segments.remove(segment.id);
+                    segment.channel.close();
+                    Files.delete(segment.file.toPath());
+                    Files.delete(segment.indexFile().toPath());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Syncs a compacted segment and its index, then gives it its final name
+    private static void finishCopy(Segment segment) throws IOException {
+        segment.channel.force(true);
+        File temp = segment.file;
+        segment.file = new File(temp.getPath().replace(".tmp", ""));
+        writeIndex(segment, segment.records);
+        segment.records.clear();
+        segment.sealed = true;
+        Files.move(temp.toPath(), segment.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Stops background compaction, seals the active segment and closes the files
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                if (active != null) {
+                    seal(active);
+                }
+                for (Segment segment : segments.values()) {
+                    segment.channel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static int checksum(byte kind, int epochDay, long sequence, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(13).put(kind).putInt(epochDay).putLong(sequence).flip());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Record past the end of the segment");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}